@@ -0,0 +1,71 @@
+package com.xupt.crawler.config;
+
+import com.xupt.crawler.controller.json.JsonResult;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.web.context.request.NativeWebRequest;
+import org.springframework.web.context.request.async.CallableProcessingInterceptor;
+import org.springframework.web.context.request.async.DeferredResult;
+import org.springframework.web.context.request.async.DeferredResultProcessingInterceptor;
+import org.springframework.web.servlet.config.annotation.AsyncSupportConfigurer;
+import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.util.concurrent.Callable;
+
+/**
+ * 异步接口配置: 抓取在调度线程池上进行, Tomcat线程在接口返回后立即释放
+ * 超时时还未开始写出的请求返回 {@link JsonResult#TIMEOUT}
+ */
+@Slf4j
+@Configuration
+public class AsyncWebConfig implements WebMvcConfigurer {
+
+    @Autowired
+    @Qualifier("exportWriter")
+    private ThreadPoolTaskExecutor exportWriter;
+
+    /**
+     * 未单独指定超时时间的异步请求(导出)的超时时间
+     */
+    @Value("${crawler.async.timeout.seconds:1800}")
+    private long timeoutSeconds;
+
+    @Override
+    public void configureAsyncSupport(AsyncSupportConfigurer configurer) {
+        configurer.setTaskExecutor(exportWriter);
+        configurer.setDefaultTimeout(timeoutSeconds * 1000);
+        configurer.registerCallableInterceptors(new CallableProcessingInterceptor() {
+            @Override
+            public <T> Object handleTimeout(NativeWebRequest request, Callable<T> task) {
+                return isCommitted(request) ? RESULT_NONE : timeoutResult(request);
+            }
+        });
+        configurer.registerDeferredResultInterceptors(new DeferredResultProcessingInterceptor() {
+            @Override
+            public <T> boolean handleTimeout(NativeWebRequest request, DeferredResult<T> deferredResult) {
+                if (!isCommitted(request)) {
+                    deferredResult.setErrorResult(timeoutResult(request));
+                }
+                return true;
+            }
+        });
+    }
+
+    private static boolean isCommitted(NativeWebRequest request) {
+        HttpServletResponse response = request.getNativeResponse(HttpServletResponse.class);
+        return response != null && response.isCommitted();
+    }
+
+    private static JsonResult timeoutResult(NativeWebRequest request) {
+        HttpServletRequest servletRequest = request.getNativeRequest(HttpServletRequest.class);
+        String uri = servletRequest == null ? null : servletRequest.getRequestURI();
+        log.warn("async request timeout. uri: {}", uri);
+        return JsonResult.timeout(String.format("request timeout, uri: %s", uri));
+    }
+}
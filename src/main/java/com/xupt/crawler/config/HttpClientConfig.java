@@ -0,0 +1,23 @@
+package com.xupt.crawler.config;
+
+import com.xupt.crawler.utils.OkHttpClients;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.env.Environment;
+
+import javax.annotation.PostConstruct;
+
+/**
+ * 用application.yml中的httpClient.xxx初始化 {@link OkHttpClients}, 发请求的bean需要 @DependsOn("httpClientConfig")
+ */
+@Configuration
+public class HttpClientConfig {
+
+    @Autowired
+    private Environment environment;
+
+    @PostConstruct
+    public void init() {
+        OkHttpClients.init(environment);
+    }
+}
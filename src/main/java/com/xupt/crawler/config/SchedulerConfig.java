@@ -0,0 +1,60 @@
+package com.xupt.crawler.config;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+
+@Slf4j
+@Configuration
+public class SchedulerConfig {
+
+    /**
+     * 所有请求共用的调度线程池, 只运行解析和启动异步请求等不阻塞的工作, 线程数与CPU核数相同即可
+     */
+    @Bean(name = "crawlerScheduler", destroyMethod = "shutdown")
+    public ExecutorService crawlerScheduler(@Value("${crawler.scheduler.parallelism:0}") int parallelism) {
+        if (parallelism <= 0) {
+            parallelism = Runtime.getRuntime().availableProcessors();
+        }
+        log.info("init crawler scheduler, parallelism: {}", parallelism);
+        return new ForkJoinPool(parallelism, pool -> {
+            ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+            thread.setName("crawler-scheduler-" + thread.getPoolIndex());
+            return thread;
+        }, null, true);
+    }
+
+    /**
+     * 异步接口(导出)写出响应的线程池, 写出时会等待抓取结果和慢客户端, 与调度线程池分开
+     */
+    @Bean(name = "exportWriter")
+    public ThreadPoolTaskExecutor exportWriter(@Value("${crawler.async.writers:8}") int writers,
+                                               @Value("${crawler.async.queueCapacity:16}") int queueCapacity) {
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(writers);
+        executor.setMaxPoolSize(writers);
+        executor.setQueueCapacity(queueCapacity);
+        executor.setThreadNamePrefix("crawler-export-");
+        log.info("init export writer, writers: {} queueCapacity: {}", writers, queueCapacity);
+        return executor;
+    }
+
+    /**
+     * 流式列表写出事件的线程池, 每个流同时最多占用一个线程, 慢客户端不会阻塞调度线程池
+     */
+    @Bean(name = "streamWriter")
+    public ThreadPoolTaskExecutor streamWriter(@Value("${crawler.stream.writers:4}") int writers) {
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(writers);
+        executor.setMaxPoolSize(writers);
+        executor.setThreadNamePrefix("crawler-stream-");
+        log.info("init stream writer, writers: {}", writers);
+        return executor;
+    }
+}
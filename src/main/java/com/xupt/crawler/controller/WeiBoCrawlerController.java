@@ -3,136 +3,466 @@ package com.xupt.crawler.controller;
 import com.xupt.crawler.controller.json.JsonResult;
 import com.xupt.crawler.controller.page.PageResult;
 import com.xupt.crawler.controller.resp.WeiboDomain;
+import com.xupt.crawler.controller.stream.ResultStream;
 import com.xupt.crawler.service.CrawlerService;
+import com.xupt.crawler.service.WeiBoCookieService;
 import com.xupt.crawler.service.WeiBoJsonpHtmlService;
+import com.xupt.crawler.service.WeiBoSearchService;
+import com.xupt.crawler.service.WeiBoUserProfileService;
+import com.xupt.crawler.service.crawl.CheckpointStore;
+import com.xupt.crawler.service.crawl.CrawlListener;
+import com.xupt.crawler.service.crawl.PageCrawler;
+import com.xupt.crawler.service.crawl.PageCursor;
+import com.xupt.crawler.service.graph.RelayGraphStore;
+import com.xupt.crawler.service.job.CrawlJob;
+import com.xupt.crawler.service.job.CrawlJobService;
+import com.xupt.crawler.service.model.Expansion;
+import com.xupt.crawler.service.model.SearchMeta;
+import com.xupt.crawler.service.model.SearchPage;
+import com.xupt.crawler.service.model.SearchQuery;
+import com.xupt.crawler.service.prefetch.PagePrefetcher;
+import com.xupt.crawler.service.relay.RelayCrawler;
+import com.xupt.crawler.utils.CSV.CSVUtils;
+import com.xupt.crawler.utils.concurrent.FanOutScope;
+import com.xupt.crawler.utils.concurrent.Futures;
 import com.xupt.crawler.utils.excel.ExcelUtils;
 import lombok.extern.slf4j.Slf4j;
+import org.apache.poi.xssf.streaming.SXSSFWorkbook;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.FileSystemResource;
+import org.springframework.core.io.Resource;
 import org.springframework.format.annotation.DateTimeFormat;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
 import org.springframework.util.StringUtils;
 import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.context.request.async.DeferredResult;
+import org.springframework.web.server.ResponseStatusException;
+import org.springframework.web.servlet.mvc.method.annotation.ResponseBodyEmitter;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
 import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.time.LocalDateTime;
-import java.time.format.DateTimeFormatter;
-import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Executor;
-import java.util.concurrent.ExecutorCompletionService;
-import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
 
 @Slf4j
 @RestController
 @RequestMapping("/wei_bo")
 public class WeiBoCrawlerController {
 
+    /**
+     * 请求没有带cookie时使用的默认登录cookie
+     */
+    private static final String DEFAULT_COOKIE = "login_sid_t=de193cdb5705dbbec9845b1ff1066006; cross_origin_proto=SSL; _s_tentry=passport.weibo.com; Apache=2715213965734.049.1628528513163; SINAGLOBAL=2715213965734.049.1628528513163; ULV=1628528513170:1:1:1:2715213965734.049.1628528513163:; SSOLoginState=1628528543; wvr=6; ALF=1631292502; SUB=_2A25MF48GDeRhGeFO71cZ9ynKzD2IHXVv-xFOrDV8PUJbkNAKLUKskW1NQX2SaHrDwd-OBaDRnNkQbwAsvGwGrcqS; SUBP=0033WrSXqPxfM725Ws9jqgMF55529P9D9WWy-0OHLUGk2zHbbephEVRn5JpX5oz75NHD95QNehBf1hMNSoMpWs4Dqcjqi--fi-2Ei-2Ri--Ri-i2i-24eo5pSK5f; webim_unReadCount=%7B%22time%22%3A1628866976870%2C%22dm_pub_total%22%3A4%2C%22chat_group_client%22%3A0%2C%22chat_group_notice%22%3A0%2C%22allcountNum%22%3A63%2C%22msgbox%22%3A0%7D";
+
     @Autowired
     private CrawlerService crawlerService;
 
     @Autowired
     private WeiBoJsonpHtmlService weiBoJsonpHtmlService;
 
-    private final Executor pageParseExecutor = Executors.newWorkStealingPool(2);
+    @Autowired
+    private WeiBoUserProfileService weiBoUserProfileService;
+
+    @Autowired
+    private WeiBoCookieService weiBoCookieService;
+
+    @Autowired
+    private WeiBoSearchService weiBoSearchService;
+
+    @Autowired
+    private PagePrefetcher pagePrefetcher;
+
+    @Autowired
+    private RelayCrawler relayCrawler;
+
+    @Autowired
+    private RelayGraphStore relayGraphStore;
+
+    @Autowired
+    private PageCrawler pageCrawler;
+
+    @Autowired
+    private CrawlJobService crawlJobService;
+
+    @Autowired
+    private CheckpointStore checkpointStore;
+
+    @Autowired
+    @Qualifier("crawlerScheduler")
+    private Executor scheduler;
+
+    /**
+     * 流式列表同时处理的搜索结果页数
+     */
+    @Value("${crawler.fanOut.pages:4}")
+    private int pageParallelism;
+
+    /**
+     * 流式列表接口整体超时时间
+     */
+    @Value("${crawler.stream.timeout.seconds:600}")
+    private long streamTimeoutSeconds;
+
+    /**
+     * 流式列表等待写出的事件数上限, 客户端读得太慢导致超过上限时结束流
+     */
+    @Value("${crawler.stream.queueCapacity:1024}")
+    private int streamQueueCapacity;
+
+    @Autowired
+    @Qualifier("streamWriter")
+    private Executor streamWriter;
 
-    private final ExecutorCompletionService<List<WeiboDomain>> pageParseCompleteService = new ExecutorCompletionService<>(pageParseExecutor);
+    /**
+     * list接口超时时间, 导出接口使用 crawler.async.timeout.seconds
+     */
+    @Value("${crawler.async.listTimeout.seconds:60}")
+    private long listTimeoutSeconds;
 
     @GetMapping("/list")
-    public JsonResult<PageResult<WeiboDomain>> list(@RequestParam(name = "cookie", required = false) String cookie,
-                                                    @RequestParam(name = "q") String q,
-                                                    @RequestParam(name = "start_time", required = false) @DateTimeFormat(pattern = "yyyy-MM-dd HH") LocalDateTime startTime,
-                                                    @RequestParam(name = "end_time", required = false) @DateTimeFormat(pattern = "yyyy-MM-dd HH") LocalDateTime endTime,
-                                                    @RequestParam(name = "page", defaultValue = "1")  int page) {
-        if (StringUtils.isEmpty(cookie)) {
-            cookie = "login_sid_t=de193cdb5705dbbec9845b1ff1066006; cross_origin_proto=SSL; _s_tentry=passport.weibo.com; Apache=2715213965734.049.1628528513163; SINAGLOBAL=2715213965734.049.1628528513163; ULV=1628528513170:1:1:1:2715213965734.049.1628528513163:; SSOLoginState=1628528543; wvr=6; ALF=1631292502; SUB=_2A25MF48GDeRhGeFO71cZ9ynKzD2IHXVv-xFOrDV8PUJbkNAKLUKskW1NQX2SaHrDwd-OBaDRnNkQbwAsvGwGrcqS; SUBP=0033WrSXqPxfM725Ws9jqgMF55529P9D9WWy-0OHLUGk2zHbbephEVRn5JpX5oz75NHD95QNehBf1hMNSoMpWs4Dqcjqi--fi-2Ei-2Ri--Ri-i2i-24eo5pSK5f; webim_unReadCount=%7B%22time%22%3A1628866976870%2C%22dm_pub_total%22%3A4%2C%22chat_group_client%22%3A0%2C%22chat_group_notice%22%3A0%2C%22allcountNum%22%3A63%2C%22msgbox%22%3A0%7D";
-        }
-        String jsonStr = crawlerService.getHtml(getUrl(q, startTime, endTime, null), cookie, true);
-        int pageCount = weiBoJsonpHtmlService.parsePageCount(jsonStr);
-        if (page < 1 || page > pageCount) {
-            throw new RuntimeException(String.format("param page error, totalPage: %s", pageCount));
+    public DeferredResult<JsonResult<PageResult<WeiboDomain>>> list(@RequestParam(name = "cookie", required = false) String cookie,
+                                                                    @RequestParam(name = "q") String q,
+                                                                    @RequestParam(name = "start_time", required = false) @DateTimeFormat(pattern = "yyyy-MM-dd HH") LocalDateTime startTime,
+                                                                    @RequestParam(name = "end_time", required = false) @DateTimeFormat(pattern = "yyyy-MM-dd HH") LocalDateTime endTime,
+                                                                    @RequestParam(name = "page", defaultValue = "1")  int page,
+                                                                    @RequestParam(name = "expand", required = false) String expand) {
+        cookie = resolveCookie(cookie);
+        Set<Expansion> expansions = Expansion.parse(expand);
+        SearchQuery query = new SearchQuery(q, startTime, endTime);
+        // 元信息缓存命中时只请求当前页, 否则先请求第1页拿到总页数, 最后一页与当前页并行请求
+        SearchMeta cachedMeta = weiBoSearchService.getCachedMeta(query);
+        String finalCookie = cookie;
+        CompletableFuture<SearchMeta> metaFuture;
+        CompletableFuture<List<WeiboDomain>> weiboDomainsFuture;
+        if (cachedMeta != null) {
+            checkPage(page, cachedMeta.getPageCount());
+            metaFuture = CompletableFuture.completedFuture(cachedMeta);
+            // 顺序翻页时当前页通常已经被预取
+            weiboDomainsFuture = pagePrefetcher.get(query, page, cookie, expansions);
+            if (weiboDomainsFuture == null) {
+                weiboDomainsFuture = Futures.thenCompose(weiBoSearchService.getPage(query, page, cookie),
+                        searchPage -> weiBoJsonpHtmlService.parseDataAsync(searchPage, finalCookie, expansions));
+            }
+        } else {
+            CompletableFuture<SearchPage> firstPageFuture = weiBoSearchService.getPage(query, 1, cookie);
+            metaFuture = Futures.thenCompose(firstPageFuture, firstPage -> weiBoSearchService.loadMeta(query, firstPage, finalCookie));
+            CompletableFuture<SearchPage> pageFuture = Futures.thenCompose(firstPageFuture, firstPage -> {
+                checkPage(page, firstPage.getPageCount());
+                return page == 1 ? CompletableFuture.completedFuture(firstPage) : weiBoSearchService.getPage(query, page, finalCookie);
+            });
+            weiboDomainsFuture = Futures.thenCompose(pageFuture,
+                    searchPage -> weiBoJsonpHtmlService.parseDataAsync(searchPage, finalCookie, expansions));
         }
-        if (page == pageCount) {
-            int firstPageSize = weiBoJsonpHtmlService.parsePageSize(jsonStr);
-            jsonStr = crawlerService.getHtml(getUrl(q, startTime, endTime, page), cookie, true);
-            List<WeiboDomain> weiboDomains =  weiBoJsonpHtmlService.parseData(jsonStr, cookie);
+        // 不阻塞Tomcat线程, 结果在调度线程上返回, 超时由 AsyncWebConfig 转为 JsonResult.TIMEOUT
+        DeferredResult<JsonResult<PageResult<WeiboDomain>>> deferredResult = new DeferredResult<>(listTimeoutSeconds * 1000);
+        // 超时或连接出错后结果已经没人要, 取消还在进行的请求
+        CompletableFuture<SearchMeta> finalMetaFuture = metaFuture;
+        CompletableFuture<List<WeiboDomain>> finalWeiboDomainsFuture = weiboDomainsFuture;
+        Runnable cancel = () -> {
+            finalWeiboDomainsFuture.cancel(false);
+            finalMetaFuture.cancel(false);
+        };
+        deferredResult.onTimeout(cancel);
+        deferredResult.onError(e -> cancel.run());
+        weiboDomainsFuture.thenCombine(metaFuture, (weiboDomains, meta) -> {
+            pagePrefetcher.prefetchAfter(query, page, meta.getPageCount(), finalCookie, expansions);
             PageResult<WeiboDomain> result = new PageResult<>();
             result.setPageNum(page);
             result.setPageSize(weiboDomains.size());
-            result.setItemCount((pageCount - 1) * firstPageSize + weiboDomains.size());
-            result.setPageCount(pageCount);
+            result.setItemCount(meta.getItemCount());
+            result.setPageCount(meta.getPageCount());
             result.setItems(weiboDomains);
             return JsonResult.ok(result);
-        } else {
-            String lastPageJsonStr = crawlerService.getHtml(getUrl(q, startTime, endTime, pageCount), cookie, true);
-            int lastPageSize =  weiBoJsonpHtmlService.parsePageSize(lastPageJsonStr);
-            List<WeiboDomain> weiboDomains;
-            if (page == 1) {
-                weiboDomains =  weiBoJsonpHtmlService.parseData(jsonStr, cookie);
+        }).whenComplete((result, e) -> {
+            if (e != null) {
+                deferredResult.setErrorResult(e instanceof CompletionException && e.getCause() != null ? e.getCause() : e);
             } else {
-                jsonStr = crawlerService.getHtml(getUrl(q, startTime, endTime, page), cookie, true);
-                weiboDomains =  weiBoJsonpHtmlService.parseData(jsonStr, cookie);
+                deferredResult.setResult(result);
             }
-            PageResult<WeiboDomain> result = new PageResult<>();
-            result.setPageNum(page);
-            result.setPageSize(weiboDomains.size());
-            result.setItemCount((pageCount - 1) * weiboDomains.size() + lastPageSize);
-            result.setPageCount(pageCount);
-            result.setItems(weiboDomains);
-            return JsonResult.ok(result);
-        }
+        });
+        return deferredResult;
     }
 
-    @GetMapping("/export")
-    public void export(@RequestParam(name = "cookie", required = false) String cookie,
-                       @RequestParam(name = "q") String q,
-                       @RequestParam(name = "start_time", required = false) @DateTimeFormat(pattern = "yyyy-MM-dd HH") LocalDateTime startTime,
-                       @RequestParam(name = "end_time", required = false) @DateTimeFormat(pattern = "yyyy-MM-dd HH") LocalDateTime endTime,
-                       HttpServletResponse response) {
-        if (StringUtils.isEmpty(cookie)) {
-            cookie = "login_sid_t=de193cdb5705dbbec9845b1ff1066006; cross_origin_proto=SSL; _s_tentry=passport.weibo.com; Apache=2715213965734.049.1628528513163; SINAGLOBAL=2715213965734.049.1628528513163; ULV=1628528513170:1:1:1:2715213965734.049.1628528513163:; SSOLoginState=1628528543; wvr=6; ALF=1631292502; SUB=_2A25MF48GDeRhGeFO71cZ9ynKzD2IHXVv-xFOrDV8PUJbkNAKLUKskW1NQX2SaHrDwd-OBaDRnNkQbwAsvGwGrcqS; SUBP=0033WrSXqPxfM725Ws9jqgMF55529P9D9WWy-0OHLUGk2zHbbephEVRn5JpX5oz75NHD95QNehBf1hMNSoMpWs4Dqcjqi--fi-2Ei-2Ri--Ri-i2i-24eo5pSK5f; webim_unReadCount=%7B%22time%22%3A1628866976870%2C%22dm_pub_total%22%3A4%2C%22chat_group_client%22%3A0%2C%22chat_group_notice%22%3A0%2C%22allcountNum%22%3A63%2C%22msgbox%22%3A0%7D";
+    /**
+     * 流式返回从 page 开始的 pages 页结果, 每条微博处理完成后立即发送, 每页处理完成后发送进度
+     *
+     * @param format ndjson 或 sse
+     */
+    @GetMapping("/list_stream")
+    public ResponseEntity<ResponseBodyEmitter> listStream(@RequestParam(name = "cookie", required = false) String cookie,
+                                                          @RequestParam(name = "q") String q,
+                                                          @RequestParam(name = "start_time", required = false) @DateTimeFormat(pattern = "yyyy-MM-dd HH") LocalDateTime startTime,
+                                                          @RequestParam(name = "end_time", required = false) @DateTimeFormat(pattern = "yyyy-MM-dd HH") LocalDateTime endTime,
+                                                          @RequestParam(name = "page", defaultValue = "1") int page,
+                                                          @RequestParam(name = "pages", defaultValue = "1") int pages,
+                                                          @RequestParam(name = "expand", required = false) String expand,
+                                                          @RequestParam(name = "format", defaultValue = ResultStream.NDJSON) String format) {
+        cookie = resolveCookie(cookie);
+        if (pages < 1) {
+            throw new RuntimeException(String.format("param pages error, pages: %s", pages));
         }
-        String jsonStr = crawlerService.getHtml(getUrl(q, startTime, endTime, null), cookie, true);
-        int pageCount = weiBoJsonpHtmlService.parsePageCount(jsonStr);
-        List<WeiboDomain> weiboDomains =  weiBoJsonpHtmlService.parseData(jsonStr, cookie);
-        List<WeiboDomain> allWeiboDomains = new ArrayList<>(weiboDomains);
+        Set<Expansion> expansions = Expansion.parse(expand);
+        SearchQuery query = new SearchQuery(q, startTime, endTime);
+        ResultStream stream = ResultStream.of(format, streamTimeoutSeconds * 1000, streamWriter, streamQueueCapacity);
+        FanOutScope<Integer> scope = new FanOutScope<>(scheduler, pageParallelism);
         String finalCookie = cookie;
-        for (int i = 2; i <= pageCount; i++) {
-            int finalI = i;
-            pageParseCompleteService.submit(() -> {
-                String pageJsonStr = crawlerService.getHtml(getUrl(q, startTime, endTime, finalI), finalCookie, true);
-                return weiBoJsonpHtmlService.parseData(pageJsonStr, finalCookie);
+        CompletableFuture<SearchPage> firstPageFuture = weiBoSearchService.getPage(query, 1, cookie);
+        // 客户端断开、超时或读得太慢时取消还在进行的请求
+        stream.onClose(() -> {
+            firstPageFuture.cancel(false);
+            scope.cancel();
+        });
+        firstPageFuture.thenAccept(firstPage -> {
+            int pageCount = firstPage.getPageCount();
+            checkPage(page, pageCount);
+            int lastPage = Math.min(pageCount, page + pages - 1);
+            for (int i = page; i <= lastPage; i++) {
+                int pageNum = i;
+                scope.fork(() -> {
+                    CompletableFuture<SearchPage> searchPage = pageNum == 1
+                            ? CompletableFuture.completedFuture(firstPage) : weiBoSearchService.getPage(query, pageNum, finalCookie);
+                    CompletableFuture<List<WeiboDomain>> parsed = Futures.thenCompose(searchPage,
+                            current -> weiBoJsonpHtmlService.parseDataAsync(current, finalCookie, expansions,
+                                    weiboDomain -> stream.send("post", streamEvent(pageNum, pageCount, "item", weiboDomain))));
+                    return Futures.cancelling(parsed.thenApply(weiboDomains -> {
+                        stream.send("page", streamEvent(pageNum, pageCount, "pageSize", weiboDomains.size()));
+                        return weiboDomains.size();
+                    }), parsed);
+                }, e -> {
+                    log.error("get page data exception. page: {} error is ", pageNum, e);
+                    stream.send("error", streamEvent(pageNum, pageCount, "msg", String.valueOf(e.getMessage())));
+                    return 0;
+                });
+            }
+            scope.join().thenAccept(pageSizes -> {
+                Map<String, Object> done = new LinkedHashMap<>();
+                done.put("pages", pageSizes.size());
+                done.put("posts", pageSizes.stream().mapToInt(Integer::intValue).sum());
+                stream.send("done", done);
+                stream.complete();
             });
-        }
-        for (int i = 2; i <= pageCount; i++) {
-            try {
-                List<WeiboDomain> pageWeiboDomains = pageParseCompleteService.take().get();
-                allWeiboDomains.addAll(pageWeiboDomains);
-            } catch (Exception e) {
-                log.error("get page data exception. error is ", e);
+        }).exceptionally(e -> {
+            if (firstPageFuture.isCancelled()) {
+                return null;
+            }
+            log.error("list stream exception. q: {} error is ", q, e);
+            stream.send("error", Collections.singletonMap("msg", String.valueOf(e.getCause() == null ? e.getMessage() : e.getCause().getMessage())));
+            stream.complete();
+            return null;
+        });
+        return stream.toResponse();
+    }
+
+    @GetMapping("/export")
+    public StreamingResponseBody export(@RequestParam(name = "cookie", required = false) String cookie,
+                                        @RequestParam(name = "q") String q,
+                                        @RequestParam(name = "start_time", required = false) @DateTimeFormat(pattern = "yyyy-MM-dd HH") LocalDateTime startTime,
+                                        @RequestParam(name = "end_time", required = false) @DateTimeFormat(pattern = "yyyy-MM-dd HH") LocalDateTime endTime,
+                                        @RequestParam(name = "expand", required = false) String expand,
+                                        @RequestParam(name = "shard", defaultValue = "false") boolean shard,
+                                        HttpServletResponse response) {
+        cookie = resolveCookie(cookie);
+        Set<Expansion> expansions = Expansion.parse(expand);
+        SearchQuery query = new SearchQuery(q, startTime, endTime);
+        String finalCookie = cookie;
+        // 在导出线程池上写出, 第1页请求失败时还没有提交响应头, 仍然可以返回错误.
+        // 客户端断开、超时等异常时不再继续抓取, 已完成的页记录在断点中, 重新导出时不再请求; 导出成功后删除断点
+        return outputStream -> {
+            try (PageCursor pages = crawl(query, finalCookie, expansions, shard)) {
+                ExcelUtils.prepareDownload(response, "weiBo");
+                // xlsx只能在最后一次性输出, 先提交响应头, 客户端可以立即开始下载
+                outputStream.flush();
+                ExcelUtils.write(outputStream, WeiboDomain.class, pages, SXSSFWorkbook.DEFAULT_WINDOW_SIZE);
+                pages.complete();
+            }
+        };
+    }
+
+    /**
+     * 流式导出CSV, 每抓完一页就写出并flush, 大批量导出时比xlsx省内存且客户端可以立即开始接收
+     */
+    @GetMapping("/export_csv")
+    public StreamingResponseBody exportCsv(@RequestParam(name = "cookie", required = false) String cookie,
+                                           @RequestParam(name = "q") String q,
+                                           @RequestParam(name = "start_time", required = false) @DateTimeFormat(pattern = "yyyy-MM-dd HH") LocalDateTime startTime,
+                                           @RequestParam(name = "end_time", required = false) @DateTimeFormat(pattern = "yyyy-MM-dd HH") LocalDateTime endTime,
+                                           @RequestParam(name = "expand", required = false) String expand,
+                                           @RequestParam(name = "gzip", defaultValue = "false") boolean gzip,
+                                           @RequestParam(name = "shard", defaultValue = "false") boolean shard,
+                                           HttpServletResponse response) {
+        cookie = resolveCookie(cookie);
+        Set<Expansion> expansions = Expansion.parse(expand);
+        SearchQuery query = new SearchQuery(q, startTime, endTime);
+        String finalCookie = cookie;
+        return outputStream -> {
+            try (PageCursor pages = crawl(query, finalCookie, expansions, shard)) {
+                CSVUtils.prepareDownload(response, "weiBo", gzip);
+                CSVUtils.exportCSV(outputStream, WeiboDomain.class, pages, gzip);
+                outputStream.flush();
+                pages.complete();
             }
+        };
+    }
+
+    /**
+     * 导出的整页抓取, shard为true时按时间窗口切分, 可以拿到超过搜索页数上限的结果
+     */
+    private PageCursor crawl(SearchQuery query, String cookie, Set<Expansion> expansions, boolean shard) throws IOException {
+        CompletableFuture<PageCursor> cursor = shard
+                ? pageCrawler.startSharded(query, cookie, expansions, CrawlListener.NONE, true)
+                : pageCrawler.start(query, cookie, expansions, CrawlListener.NONE, true);
+        // 异步请求超时或出错时Spring会中断导出线程, 此时取消第1页请求或切分探测; 之后的页由PageCursor响应中断
+        try {
+            return cursor.get();
+        } catch (InterruptedException e) {
+            if (!cursor.cancel(false)) {
+                cursor.thenAccept(PageCursor::close);
+            }
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("crawl interrupted");
+        } catch (ExecutionException e) {
+            throw new CompletionException(e.getCause());
+        }
+    }
+
+    /**
+     * 提交后台导出任务, 立即返回任务id, 任务队列已满时返回service_unavailable
+     *
+     * @param format csv 或 xlsx
+     */
+    @PostMapping("/jobs")
+    public JsonResult<Map<String, Object>> submitJob(@RequestParam(name = "cookie", required = false) String cookie,
+                                                     @RequestParam(name = "q") String q,
+                                                     @RequestParam(name = "start_time", required = false) @DateTimeFormat(pattern = "yyyy-MM-dd HH") LocalDateTime startTime,
+                                                     @RequestParam(name = "end_time", required = false) @DateTimeFormat(pattern = "yyyy-MM-dd HH") LocalDateTime endTime,
+                                                     @RequestParam(name = "expand", required = false) String expand,
+                                                     @RequestParam(name = "format", defaultValue = CrawlJobService.CSV) String format,
+                                                     @RequestParam(name = "shard", defaultValue = "false") boolean shard) {
+        cookie = resolveCookie(cookie);
+        Set<Expansion> expansions = Expansion.parse(expand);
+        SearchQuery query = new SearchQuery(q, startTime, endTime);
+        try {
+            return JsonResult.ok(crawlJobService.submit(query, expansions, cookie, format, shard).toView());
+        } catch (RejectedExecutionException e) {
+            log.warn("crawl job rejected, queue is full. q: {}", q);
+            return JsonResult.serviceUnavailable("too many crawl jobs, please retry later");
+        }
+    }
+
+    /**
+     * 任务进度: 已完成页数、微博数、请求数、失败页数和预计剩余时间
+     */
+    @GetMapping("/jobs/{id}")
+    public ResponseEntity<JsonResult<Map<String, Object>>> getJob(@PathVariable("id") String id) {
+        CrawlJob job = crawlJobService.get(id);
+        if (job == null) {
+            return ResponseEntity.status(HttpStatus.NOT_FOUND)
+                    .body(JsonResult.notFound(String.format("crawl job not found, id: %s", id)));
         }
-//        try {
-//            response.setHeader("Pragma", "private");
-//            response.setHeader("Cache-Control", "private, must-revalidate");
-//            response.setHeader("Content-Disposition", "attachment; filename=weiBo.csv");
-//            response.setContentType("text/csv;charset=utf-8");
-//            CSVUtils.exportCSVWithParam(WeiboDomain.defaultHeaders, allWeiboDomains, response.getOutputStream(), CSVUtils.ExportParam.of(true, true));
-//        } catch (IOException e) {
-//            throw new RuntimeException("liquidation orders download failed", e);
-//        }
-        ExcelUtils.write(response, allWeiboDomains, "weiBo");
+        return ResponseEntity.ok(JsonResult.ok(job.toView()));
     }
 
-    private String getUrl(String q, LocalDateTime startTime, LocalDateTime endTime, Integer page) {
-        String url = "https://s.weibo.com/weibo?q=" + q + "&Refer=article_weibo";
-        if (startTime !=  null && endTime != null) {
-            url = url + "&typeall=1&suball=1&timescope=custom:" + startTime.format(DateTimeFormatter.ofPattern("yyyy-MM-dd-HH")) + ":" + endTime.format(DateTimeFormatter.ofPattern("yyyy-MM-dd-HH"));
+    /**
+     * 下载导出文件, 任务不存在时返回404, 任务还没成功时返回409
+     */
+    @GetMapping("/jobs/{id}/download")
+    public ResponseEntity<Resource> downloadJob(@PathVariable("id") String id) {
+        CrawlJob job = crawlJobService.get(id);
+        if (job == null) {
+            throw new ResponseStatusException(HttpStatus.NOT_FOUND, String.format("crawl job not found, id: %s", id));
         }
-        if (page != null) {
-            url = url + "&page=" + page;
+        if (job.getStatus() != CrawlJob.Status.SUCCEEDED) {
+            throw new ResponseStatusException(HttpStatus.CONFLICT,
+                    String.format("crawl job not succeeded, id: %s status: %s", id, job.getStatus()));
+        }
+        return ResponseEntity.ok()
+                .header("Content-Disposition", "attachment; filename=\"weiBo." + job.getFormat() + "\"")
+                .contentType(CrawlJobService.CSV.equals(job.getFormat()) ? MediaType.parseMediaType("text/csv;charset=utf-8")
+                        : MediaType.parseMediaType("application/vnd.openxmlformats-officedocument.spreadsheetml.sheet"))
+                .body(new FileSystemResource(job.getFile().toFile()));
+    }
+
+    @GetMapping("/stats")
+    public JsonResult<Map<String, Object>> stats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("requests", crawlerService.getStats());
+        stats.put("searchMeta", weiBoSearchService.getStats());
+        stats.put("prefetch", pagePrefetcher.getStats());
+        stats.put("profileCache", weiBoUserProfileService.getStats());
+        stats.put("cookiePool", weiBoCookieService.getStats());
+        stats.put("relay", relayCrawler.getStats());
+        stats.put("relayGraph", relayGraphStore.getStats());
+        stats.put("jobs", crawlJobService.getStats());
+        stats.put("checkpoint", checkpointStore.getStats());
+        return JsonResult.ok(stats);
+    }
+
+    /**
+     * 已抓取的转发关系中, 被转发人数最多的作者
+     */
+    @GetMapping("/graph/top_spreaders")
+    public JsonResult<List<Map<String, Object>>> topSpreaders(@RequestParam(name = "limit", defaultValue = "20") int limit) {
+        if (limit < 1) {
+            return JsonResult.badRequest(String.format("param limit error, limit: %s", limit));
+        }
+        return JsonResult.ok(relayGraphStore.topSpreaders(limit));
+    }
+
+    @GetMapping("/graph/depth")
+    public JsonResult<Map<String, Object>> relayDepth(@RequestParam(name = "mid") String mid,
+                                                      @RequestParam(name = "max_depth", defaultValue = "10") int maxDepth) {
+        Map<String, Object> depth = relayGraphStore.depth(mid, maxDepth);
+        if (depth == null) {
+            return JsonResult.notFound(String.format("relays of post not crawled yet, mid: %s", mid));
+        }
+        return JsonResult.ok(depth);
+    }
+
+    @GetMapping("/graph/overlap")
+    public JsonResult<Map<String, Object>> relayOverlap(@RequestParam(name = "mid_a") String midA,
+                                                        @RequestParam(name = "mid_b") String midB) {
+        Map<String, Object> overlap = relayGraphStore.overlap(midA, midB);
+        if (overlap == null) {
+            return JsonResult.notFound(String.format("relays of post not crawled yet, mid_a: %s mid_b: %s", midA, midB));
+        }
+        return JsonResult.ok(overlap);
+    }
+
+    private static String resolveCookie(String cookie) {
+        return StringUtils.isEmpty(cookie) ? DEFAULT_COOKIE : cookie;
+    }
+
+    private Map<String, Object> streamEvent(int page, int pageCount, String key, Object value) {
+        Map<String, Object> event = new LinkedHashMap<>();
+        event.put("page", page);
+        event.put("pageCount", pageCount);
+        event.put(key, value);
+        return event;
+    }
+
+    private void checkPage(int page, int pageCount) {
+        if (page < 1 || page > pageCount) {
+            throw new RuntimeException(String.format("param page error, totalPage: %s", pageCount));
         }
-        return url;
     }
 }
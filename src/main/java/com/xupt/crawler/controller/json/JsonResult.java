@@ -72,45 +72,45 @@ public class JsonResult<T> {
         return ok(null);
     }
 
-    public static JsonResult fail(String status, String msg) {
+    public static <T> JsonResult<T> fail(String status, String msg) {
         if (status.equals(OK)) {
             throw new RuntimeException("ok is not fail");
         }
-        JsonResult result = new JsonResult();
+        JsonResult<T> result = new JsonResult<>();
         result.setStatus(status);
         result.setMsg(msg);
         return result;
     }
 
-    public static JsonResult badRequest(String msg) {
+    public static <T> JsonResult<T> badRequest(String msg) {
         return fail(BAD_REQUEST, msg);
     }
 
-    public static JsonResult unauthorized(String msg) {
+    public static <T> JsonResult<T> unauthorized(String msg) {
         return fail(UNAUTHORIZED, msg);
     }
 
-    public static JsonResult forbidden(String msg) {
+    public static <T> JsonResult<T> forbidden(String msg) {
         return fail(FORBIDDEN, msg);
     }
 
-    public static JsonResult notFound(String msg) {
+    public static <T> JsonResult<T> notFound(String msg) {
         return fail(NOT_FOUND, msg);
     }
 
-    public static JsonResult timeout(String msg) {
+    public static <T> JsonResult<T> timeout(String msg) {
         return fail(TIMEOUT, msg);
     }
 
-    public static JsonResult duplicateRequest(String msg) {
+    public static <T> JsonResult<T> duplicateRequest(String msg) {
         return fail(DUPLICATE_REQUEST, msg);
     }
 
-    public static JsonResult internalError(String msg) {
+    public static <T> JsonResult<T> internalError(String msg) {
         return fail(INTERNAL_ERROR, msg);
     }
 
-    public static JsonResult serviceUnavailable(String msg) {
+    public static <T> JsonResult<T> serviceUnavailable(String msg) {
         return fail(SERVICE_UNAVAILABLE, msg);
     }
 
@@ -0,0 +1,205 @@
+package com.xupt.crawler.controller.stream;
+
+import com.alibaba.fastjson.JSON;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.servlet.mvc.method.annotation.ResponseBodyEmitter;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * 列表结果的流式输出, 支持 ndjson(每行一个事件) 和 sse 两种格式
+ * 事件名: post 一条微博处理完成, page 一页处理完成, done 全部完成, error 出错
+ * 可以在任意线程上发送, 发送只把事件放入有界队列, 由writer线程池写出, 不阻塞抓取线程.
+ * 客户端读得太慢导致队列满时结束流(最后发送一个 error 事件); 客户端断开、超时或队列满后发送直接忽略,
+ * 并执行 {@link #onClose} 注册的回调
+ */
+@Slf4j
+public class ResultStream {
+
+    public static final String NDJSON = "ndjson";
+    public static final String SSE = "sse";
+
+    private static final MediaType NDJSON_TYPE = new MediaType("application", "x-ndjson", StandardCharsets.UTF_8);
+    private static final MediaType LINE_TYPE = new MediaType("text", "plain", StandardCharsets.UTF_8);
+
+    private final ResponseBodyEmitter emitter;
+    private final boolean sse;
+    private final BlockingQueue<Event> events;
+    private final Executor writer;
+    private final AtomicBoolean closed = new AtomicBoolean();
+    private final AtomicBoolean draining = new AtomicBoolean();
+    private final AtomicBoolean finished = new AtomicBoolean();
+    private final CopyOnWriteArrayList<Runnable> closeCallbacks = new CopyOnWriteArrayList<>();
+
+    /**
+     * 已调用 {@link #complete()} 或队列已满, 不再接受新事件
+     */
+    private volatile boolean completing;
+    private volatile boolean overflow;
+    /**
+     * 客户端已断开或超时, 不再写出
+     */
+    private volatile boolean disconnected;
+
+    private ResultStream(ResponseBodyEmitter emitter, boolean sse, Executor writer, int queueCapacity) {
+        this.emitter = emitter;
+        this.sse = sse;
+        this.writer = writer;
+        this.events = new ArrayBlockingQueue<>(queueCapacity);
+        emitter.onTimeout(this::disconnect);
+        emitter.onError(e -> disconnect());
+        emitter.onCompletion(this::close);
+    }
+
+    /**
+     * @param format        ndjson 或 sse
+     * @param timeoutMillis 整个流的超时时间
+     * @param writer        写出响应的线程池
+     * @param queueCapacity 等待写出的事件数上限
+     */
+    public static ResultStream of(String format, long timeoutMillis, Executor writer, int queueCapacity) {
+        if (SSE.equalsIgnoreCase(format)) {
+            return new ResultStream(new SseEmitter(timeoutMillis), true, writer, queueCapacity);
+        }
+        if (NDJSON.equalsIgnoreCase(format)) {
+            return new ResultStream(new ResponseBodyEmitter(timeoutMillis), false, writer, queueCapacity);
+        }
+        throw new RuntimeException(String.format("param format error, format: %s", format));
+    }
+
+    public ResponseEntity<ResponseBodyEmitter> toResponse() {
+        ResponseEntity.BodyBuilder builder = ResponseEntity.ok().header("Cache-Control", "no-cache");
+        if (!sse) {
+            builder.contentType(NDJSON_TYPE);
+        }
+        return builder.body(emitter);
+    }
+
+    /**
+     * 流关闭(正常结束、超时、客户端断开)时执行, 用于取消还未完成的抓取
+     */
+    public void onClose(Runnable callback) {
+        closeCallbacks.add(callback);
+        if (closed.get()) {
+            callback.run();
+        }
+    }
+
+    /**
+     * @return 流已关闭或队列已满时返回false
+     */
+    public boolean send(String event, Object data) {
+        if (closed.get() || completing) {
+            return false;
+        }
+        if (!events.offer(new Event(event, data))) {
+            log.warn("result stream client too slow, close stream. event: {} queued: {}", event, events.size());
+            overflow = true;
+            completing = true;
+            events.clear();
+            close();
+            drain();
+            return false;
+        }
+        drain();
+        return true;
+    }
+
+    /**
+     * 已发送的事件写出后结束流
+     */
+    public void complete() {
+        completing = true;
+        drain();
+    }
+
+    /**
+     * 同一个流同时最多一个写出任务, 按发送顺序写出
+     */
+    private void drain() {
+        if (!draining.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            writer.execute(this::writeEvents);
+        } catch (RejectedExecutionException e) {
+            draining.set(false);
+            log.error("result stream writer rejected, close stream. error is ", e);
+            events.clear();
+            disconnect();
+        }
+    }
+
+    private void writeEvents() {
+        try {
+            Event event;
+            while (!disconnected && (event = events.poll()) != null) {
+                write(event.name, event.data);
+            }
+            if (completing && !disconnected && finished.compareAndSet(false, true)) {
+                if (overflow) {
+                    write("error", Collections.singletonMap("msg", "client too slow, stream closed"));
+                }
+                emitter.complete();
+            }
+        } finally {
+            draining.set(false);
+        }
+        // 释放标记前后可能有新事件入队
+        if (!disconnected && (!events.isEmpty() || (completing && !finished.get()))) {
+            drain();
+        }
+    }
+
+    private void write(String event, Object data) {
+        try {
+            if (sse) {
+                ((SseEmitter) emitter).send(SseEmitter.event().name(event).data(JSON.toJSONString(data), LINE_TYPE));
+            } else {
+                Map<String, Object> line = new LinkedHashMap<>();
+                line.put("event", event);
+                line.put("data", data);
+                emitter.send(JSON.toJSONString(line) + "\n", LINE_TYPE);
+            }
+        } catch (IOException | IllegalStateException e) {
+            log.info("result stream closed by client. event: {} error: {}", event, e.toString());
+            events.clear();
+            disconnect();
+        }
+    }
+
+    private void disconnect() {
+        disconnected = true;
+        close();
+    }
+
+    private void close() {
+        if (closed.compareAndSet(false, true)) {
+            closeCallbacks.forEach(Runnable::run);
+        }
+    }
+
+    private static class Event {
+
+        private final String name;
+        private final Object data;
+
+        private Event(String name, Object data) {
+            this.name = name;
+            this.data = data;
+        }
+    }
+}
@@ -1,6 +1,33 @@
 package com.xupt.crawler.service;
 
+import com.xupt.crawler.service.model.HtmlResponse;
+import com.xupt.crawler.service.parser.BodyExtractor;
+
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
 public interface CrawlerService {
 
     String getHtml(String url, String cookie, boolean getOrPost);
+
+    /**
+     * 与 {@link #getHtml} 相同, 同时返回响应设置的cookie, 不参与请求合并
+     */
+    HtmlResponse getHtmlWithCookies(String url, String cookie, boolean getOrPost);
+
+    /**
+     * 异步获取页面, 不占用调用线程, 请求由OkHttp的Dispatcher调度
+     */
+    CompletableFuture<String> getHtmlAsync(String url, String cookie, boolean getOrPost);
+
+    /**
+     * 异步GET请求, 响应体交给extractor边读边解析, extractor返回后关闭响应, 剩余内容不再读取.
+     * 每次调用都单独发出请求, 不参与请求合并
+     */
+    <T> CompletableFuture<T> fetchAsync(String url, String cookie, BodyExtractor<T> extractor);
+
+    /**
+     * 请求合并的统计: 实际发出的请求数、被合并的请求数、进行中的请求数
+     */
+    Map<String, Object> getStats();
 }
@@ -1,6 +1,40 @@
 package com.xupt.crawler.service;
 
+import com.xupt.crawler.service.cookie.VisitorCookie;
+
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
 public interface WeiBoCookieService {
 
+    /**
+     * 从访客cookie池中轮询获取一个cookie, 池中有可用cookie时不发起网络请求, 池为空时阻塞到生成完成
+     */
     String getCookie();
+
+    /**
+     * 与 {@link #getCookie()} 相同, 池为空时不阻塞, 返回正在生成的cookie
+     */
+    CompletableFuture<String> getCookieAsync();
+
+    /**
+     * 使用该cookie的请求成功
+     */
+    void reportSuccess(String cookie);
+
+    /**
+     * 使用该cookie的请求失败, loginWall表示被重定向到了登录页,
+     * 失败次数多的cookie会被淘汰并在后台补充新的cookie
+     */
+    void reportFailure(String cookie, boolean loginWall);
+
+    /**
+     * 向passport请求生成一个新的访客cookie, 过期时间取自passport设置SUB、SUBP时的expires, 没有时为 Long.MAX_VALUE
+     */
+    VisitorCookie mintCookie();
+
+    /**
+     * cookie池中每个cookie的请求数、失败数和存活时间
+     */
+    Map<String, Object> getStats();
 }
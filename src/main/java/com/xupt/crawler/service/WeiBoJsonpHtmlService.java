@@ -1,14 +1,38 @@
 package com.xupt.crawler.service;
 
 import com.xupt.crawler.controller.resp.WeiboDomain;
+import com.xupt.crawler.service.model.Expansion;
+import com.xupt.crawler.service.model.SearchPage;
+import com.xupt.crawler.service.relay.RelayPageStore;
 
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
 
 public interface WeiBoJsonpHtmlService {
 
-    int parsePageCount(String html);
+    /**
+     * 解析搜索结果页, 每个页面只解析一次, 页数、卡片数和卡片内容都从结果中获取
+     */
+    SearchPage parsePage(String html);
 
-    int parsePageSize(String html);
+    /**
+     * @param expansions 需要额外请求的信息, 不在其中的阶段完全跳过, 对应字段为空
+     */
+    List<WeiboDomain> parseData(SearchPage page, String realCookie, Set<Expansion> expansions);
 
-    List<WeiboDomain> parseData(String html, String realCookie);
+    CompletableFuture<List<WeiboDomain>> parseDataAsync(SearchPage page, String realCookie, Set<Expansion> expansions);
+
+    /**
+     * @param onItem 每条微博处理完成时立即回调(按完成顺序, 在处理线程上执行), 返回结果仍按页面顺序
+     */
+    CompletableFuture<List<WeiboDomain>> parseDataAsync(SearchPage page, String realCookie, Set<Expansion> expansions,
+                                                        Consumer<WeiboDomain> onItem);
+
+    /**
+     * @param relayPages 转发页先从这里读取, 请求到的转发页也写入这里
+     */
+    CompletableFuture<List<WeiboDomain>> parseDataAsync(SearchPage page, String realCookie, Set<Expansion> expansions,
+                                                        Consumer<WeiboDomain> onItem, RelayPageStore relayPages);
 }
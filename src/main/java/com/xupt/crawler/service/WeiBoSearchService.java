@@ -0,0 +1,31 @@
+package com.xupt.crawler.service;
+
+import com.xupt.crawler.service.model.SearchMeta;
+import com.xupt.crawler.service.model.SearchPage;
+import com.xupt.crawler.service.model.SearchQuery;
+
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+public interface WeiBoSearchService {
+
+    /**
+     * 获取并解析一页搜索结果, 页码从1开始
+     */
+    CompletableFuture<SearchPage> getPage(SearchQuery query, int page, String cookie);
+
+    /**
+     * 缓存中的搜索元信息, 不存在或已过期时返回null
+     */
+    SearchMeta getCachedMeta(SearchQuery query);
+
+    /**
+     * 根据第1页计算元信息并放入缓存, 有多页时需要再请求最后一页
+     */
+    CompletableFuture<SearchMeta> loadMeta(SearchQuery query, SearchPage firstPage, String cookie);
+
+    /**
+     * 元信息缓存的统计
+     */
+    Map<String, Object> getStats();
+}
@@ -0,0 +1,19 @@
+package com.xupt.crawler.service;
+
+import com.xupt.crawler.service.model.UserProfile;
+
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+public interface WeiBoUserProfileService {
+
+    /**
+     * 获取用户主页信息, 优先使用缓存, 获取失败时返回空信息
+     */
+    CompletableFuture<UserProfile> getProfile(String uid, String cookie);
+
+    /**
+     * 缓存统计: 命中、未命中、淘汰次数等
+     */
+    Map<String, Object> getStats();
+}
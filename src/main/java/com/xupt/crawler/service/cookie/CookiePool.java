@@ -0,0 +1,252 @@
+package com.xupt.crawler.service.cookie;
+
+import com.xupt.crawler.utils.concurrent.SingleFlight;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+/**
+ * 预先生成的访客cookie池
+ * <p>
+ * 后台线程保持池中有 size 个有效cookie, 在过期前 refreshAheadMillis 替换掉旧的,
+ * 过期时间取passport设置的过期时间和 maxAgeMillis 中较早的一个;
+ * {@link #borrowAsync()} 轮询返回池中的cookie, 不发起网络请求, 只有池为空时才返回等待生成的future.
+ * 生成在单独的mintExecutor上进行, 不占用调用方线程.
+ * 每个cookie记录请求数和失败分数, 失败分数超过 evictScore 或请求数达到 maxRequests 的cookie被淘汰.
+ * 所有生成操作经过同一个 {@link SingleFlight}, 一批同时失败的请求只触发一次生成
+ */
+@Slf4j
+public class CookiePool {
+
+    private static final String MINT_KEY = "mint";
+
+    private final int size;
+
+    private final long maxAgeMillis;
+
+    private final long refreshAheadMillis;
+
+    private final double evictScore;
+
+    private final long maxRequests;
+
+    private final Supplier<VisitorCookie> minter;
+
+    private final ScheduledExecutorService scheduler;
+
+    private final Executor mintExecutor;
+
+    private final SingleFlight<String, VisitorCookie> minting = new SingleFlight<>();
+
+    private final AtomicInteger cursor = new AtomicInteger();
+
+    /**
+     * 已经安排了一次补充还没开始执行, 一批同时淘汰的cookie只触发一次补充
+     */
+    private final AtomicBoolean refillPending = new AtomicBoolean();
+
+    /**
+     * 池中cookie变化后的回调, 用于保存快照
+     */
+    private volatile Consumer<List<VisitorCookie>> changeListener = cookies -> {
+    };
+
+    /**
+     * 只在持有锁时整体替换, 读取时无锁
+     */
+    private volatile List<VisitorCookie> cookies = new ArrayList<>();
+
+    public CookiePool(int size, long maxAgeMillis, long refreshAheadMillis, double evictScore, long maxRequests,
+                      Supplier<VisitorCookie> minter, ScheduledExecutorService scheduler, Executor mintExecutor) {
+        this.size = size;
+        this.maxAgeMillis = maxAgeMillis;
+        this.refreshAheadMillis = refreshAheadMillis;
+        this.evictScore = evictScore;
+        this.maxRequests = maxRequests;
+        this.minter = minter;
+        this.scheduler = scheduler;
+        this.mintExecutor = mintExecutor;
+    }
+
+    public void setChangeListener(Consumer<List<VisitorCookie>> changeListener) {
+        this.changeListener = changeListener;
+    }
+
+    /**
+     * 恢复之前保存的cookie, 过期和即将过期的丢弃
+     */
+    public synchronized void restore(List<VisitorCookie> restored) {
+        long now = System.currentTimeMillis();
+        List<VisitorCookie> next = new ArrayList<>(cookies);
+        for (VisitorCookie cookie : restored) {
+            if (next.size() < size && !cookie.needsRefresh(now, refreshAheadMillis) && find(cookie.getValue()) == null) {
+                next.add(cookie);
+            }
+        }
+        cookies = next;
+        log.info("cookie pool restored, size: {}", next.size());
+    }
+
+    public void start(long refreshIntervalMillis) {
+        scheduler.scheduleWithFixedDelay(this::refresh, 0, refreshIntervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * 会阻塞调用线程直到生成完成, 调度线程上使用 {@link #borrowAsync()}
+     */
+    public String borrow() {
+        try {
+            return borrowAsync().join();
+        } catch (CompletionException e) {
+            throw new RuntimeException("no visitor cookie available", e.getCause());
+        }
+    }
+
+    /**
+     * 池中有可用cookie时返回已完成的future; 冷启动或池中全部过期时返回正在生成的cookie, 同时等待的调用方共享一次生成
+     */
+    public CompletableFuture<String> borrowAsync() {
+        long now = System.currentTimeMillis();
+        List<VisitorCookie> snapshot = cookies;
+        for (int i = 0; i < snapshot.size(); i++) {
+            VisitorCookie cookie = snapshot.get(Math.floorMod(cursor.getAndIncrement(), snapshot.size()));
+            if (!cookie.isExpired(now)) {
+                return CompletableFuture.completedFuture(cookie.getValue());
+            }
+        }
+        return mintOnce().thenApply(VisitorCookie::getValue);
+    }
+
+    public void reportSuccess(String value) {
+        VisitorCookie cookie = find(value);
+        if (cookie != null) {
+            cookie.recordSuccess();
+            if (maxRequests > 0 && cookie.getRequestCount() >= maxRequests) {
+                evict(cookie, "request count reached " + maxRequests);
+            }
+        }
+    }
+
+    public void reportFailure(String value, double weight) {
+        VisitorCookie cookie = find(value);
+        if (cookie == null) {
+            return;
+        }
+        cookie.recordFailure(weight);
+        if (cookie.getFailureScore() >= evictScore) {
+            evict(cookie, "failure score " + cookie.getFailureScore());
+        }
+    }
+
+    public List<VisitorCookie> getCookies() {
+        return cookies;
+    }
+
+    /**
+     * 移除过期的cookie, 替换即将过期的cookie, 补足到size个
+     */
+    void refresh() {
+        try {
+            long now = System.currentTimeMillis();
+            int fresh = 0;
+            for (VisitorCookie cookie : cookies) {
+                if (!cookie.needsRefresh(now, refreshAheadMillis)) {
+                    fresh++;
+                }
+            }
+            // 即将过期但还没过期的cookie在新cookie生成前继续使用
+            for (int i = fresh; i < size; i++) {
+                mintOnce().join();
+            }
+        } catch (Exception e) {
+            log.error("refresh cookie pool exception. error is ", e);
+        }
+    }
+
+    private CompletableFuture<VisitorCookie> mintOnce() {
+        // minter会阻塞请求passport并退避重试, 放到mintExecutor上执行
+        return minting.execute(MINT_KEY, () -> CompletableFuture.supplyAsync(() -> {
+            VisitorCookie minted = minter.get();
+            long now = System.currentTimeMillis();
+            // 以passport给出的过期时间为准, maxAge只作为上限
+            VisitorCookie cookie = new VisitorCookie(minted.getValue(), now, Math.min(minted.getExpiresAt(), now + maxAgeMillis));
+            replace(cookie);
+            return cookie;
+        }, mintExecutor));
+    }
+
+    private VisitorCookie find(String value) {
+        for (VisitorCookie cookie : cookies) {
+            if (cookie.getValue().equals(value)) {
+                return cookie;
+            }
+        }
+        return null;
+    }
+
+    private void evict(VisitorCookie cookie, String reason) {
+        synchronized (this) {
+            if (!cookies.contains(cookie)) {
+                return;
+            }
+            List<VisitorCookie> next = new ArrayList<>(cookies);
+            next.remove(cookie);
+            cookies = next;
+        }
+        notifyChanged();
+        log.warn("cookie evicted, reason: {} requestCount: {} failureCount: {} age: {}s", reason,
+                cookie.getRequestCount(), cookie.getFailureCount(),
+                TimeUnit.MILLISECONDS.toSeconds(System.currentTimeMillis() - cookie.getMintedAt()));
+        if (refillPending.compareAndSet(false, true)) {
+            scheduler.execute(() -> {
+                // 先清除标记, 补充过程中再有淘汰时重新安排
+                refillPending.set(false);
+                refresh();
+            });
+        }
+    }
+
+    /**
+     * 加入一个新cookie, 同时移除一个最需要替换的旧cookie, 保持池的大小不超过size
+     */
+    private synchronized void replace(VisitorCookie cookie) {
+        long now = System.currentTimeMillis();
+        List<VisitorCookie> next = new ArrayList<>();
+        for (VisitorCookie old : cookies) {
+            if (!old.isExpired(now)) {
+                next.add(old);
+            }
+        }
+        if (next.size() >= size) {
+            VisitorCookie oldest = next.get(0);
+            for (VisitorCookie old : next) {
+                if (old.getExpiresAt() < oldest.getExpiresAt()) {
+                    oldest = old;
+                }
+            }
+            next.remove(oldest);
+        }
+        next.add(cookie);
+        cookies = next;
+        log.info("cookie pool refreshed, size: {}", next.size());
+        notifyChanged();
+    }
+
+    private void notifyChanged() {
+        try {
+            changeListener.accept(cookies);
+        } catch (Exception e) {
+            log.error("cookie pool change listener exception. error is ", e);
+        }
+    }
+}
@@ -0,0 +1,80 @@
+package com.xupt.crawler.service.cookie;
+
+import com.alibaba.fastjson.annotation.JSONCreator;
+import com.alibaba.fastjson.annotation.JSONField;
+import lombok.EqualsAndHashCode;
+import lombok.Getter;
+
+/**
+ * passport生成的访客cookie及其健康状况
+ * <p>
+ * 请求数和失败分数会随使用变化, 相等只看cookie的值
+ */
+@Getter
+@EqualsAndHashCode(of = "value")
+public class VisitorCookie {
+
+    /**
+     * 每次成功后失败分数的衰减系数
+     */
+    private static final double SUCCESS_DECAY = 0.5;
+
+    /**
+     * SUB=xxx; SUBP=xxx
+     */
+    private String value;
+
+    private long mintedAt;
+
+    private long expiresAt;
+
+    private long requestCount;
+
+    private long failureCount;
+
+    /**
+     * 失败分数, 失败时增加, 成功时衰减, 超过阈值的cookie会被淘汰
+     */
+    private double failureScore;
+
+    public VisitorCookie(String value, long mintedAt, long expiresAt) {
+        this.value = value;
+        this.mintedAt = mintedAt;
+        this.expiresAt = expiresAt;
+    }
+
+    /**
+     * 从快照恢复
+     */
+    @JSONCreator
+    public VisitorCookie(@JSONField(name = "value") String value, @JSONField(name = "mintedAt") long mintedAt,
+                         @JSONField(name = "expiresAt") long expiresAt, @JSONField(name = "requestCount") long requestCount,
+                         @JSONField(name = "failureCount") long failureCount, @JSONField(name = "failureScore") double failureScore) {
+        this(value, mintedAt, expiresAt);
+        this.requestCount = requestCount;
+        this.failureCount = failureCount;
+        this.failureScore = failureScore;
+    }
+
+    public boolean isExpired(long now) {
+        return now >= expiresAt;
+    }
+
+    /**
+     * 距离过期不足aheadMillis时需要提前替换
+     */
+    public boolean needsRefresh(long now, long aheadMillis) {
+        return now >= expiresAt - aheadMillis;
+    }
+
+    public synchronized void recordSuccess() {
+        requestCount++;
+        failureScore *= SUCCESS_DECAY;
+    }
+
+    public synchronized void recordFailure(double weight) {
+        requestCount++;
+        failureCount++;
+        failureScore += weight;
+    }
+}
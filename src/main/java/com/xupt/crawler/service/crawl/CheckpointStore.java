@@ -0,0 +1,194 @@
+package com.xupt.crawler.service.crawl;
+
+import com.google.common.base.Charsets;
+import com.google.common.hash.Hashing;
+import com.xupt.crawler.service.model.Expansion;
+import com.xupt.crawler.service.model.SearchQuery;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+/**
+ * 导出和后台任务的断点目录管理: 同一查询(关键词+时间窗口+附加信息)对应同一个断点,
+ * 中断后重新导出或重启后重新提交时从断点继续, 已完成的页和转发页不再请求.
+ * 同时进行的同一查询共用一个断点实例; 导出成功后断点在最后一个使用者释放时删除, 之后的导出重新抓取最新数据
+ */
+@Slf4j
+@Component
+public class CheckpointStore {
+
+    @Value("${crawler.checkpoint.enabled:true}")
+    private boolean enabled;
+
+    @Value("${crawler.checkpoint.dir:data/checkpoints}")
+    private String dir;
+
+    /**
+     * 断点在最后一次写入后的保留时间
+     */
+    @Value("${crawler.checkpoint.ttl.hours:24}")
+    private long ttlHours;
+
+    private final Map<String, CrawlCheckpoint> opened = new HashMap<>();
+
+    private final Map<String, Integer> references = new HashMap<>();
+
+    /**
+     * 已有使用者导出成功的断点
+     */
+    private final Set<String> finished = new HashSet<>();
+
+    private final AtomicLong pagesSaved = new AtomicLong();
+
+    private final AtomicLong pagesRestored = new AtomicLong();
+
+    private final AtomicLong relayPagesSaved = new AtomicLong();
+
+    private final AtomicLong relayPagesRestored = new AtomicLong();
+
+    private final AtomicLong checkpointsFinished = new AtomicLong();
+
+    @PostConstruct
+    public void init() {
+        log.info("init checkpoint store, enabled: {} dir: {} ttl: {}h", enabled, dir, ttlHours);
+    }
+
+    /**
+     * 打开(不存在时创建)查询对应的断点, 用完后必须 {@link #release}; 未开启或目录不可用时返回null
+     */
+    public synchronized CrawlCheckpoint open(SearchQuery query, Set<Expansion> expansions) {
+        if (!enabled) {
+            return null;
+        }
+        purgeExpired();
+        String key = key(query, expansions);
+        CrawlCheckpoint checkpoint = opened.get(key);
+        if (checkpoint == null) {
+            try {
+                checkpoint = new CrawlCheckpoint(Paths.get(dir, key).toAbsolutePath(), this);
+            } catch (IOException e) {
+                log.error("open checkpoint exception. q: {} error is ", query.getQ(), e);
+                return null;
+            }
+            opened.put(key, checkpoint);
+        }
+        references.merge(key, 1, Integer::sum);
+        return checkpoint;
+    }
+
+    public void release(CrawlCheckpoint checkpoint) {
+        release(checkpoint, false);
+    }
+
+    /**
+     * @param completed 所有页都已成功导出, 最后一个使用者释放后删除断点
+     */
+    public synchronized void release(CrawlCheckpoint checkpoint, boolean completed) {
+        if (checkpoint == null) {
+            return;
+        }
+        opened.entrySet().stream()
+                .filter(entry -> entry.getValue() == checkpoint)
+                .map(Map.Entry::getKey)
+                .findFirst()
+                .ifPresent(key -> {
+                    if (completed) {
+                        finished.add(key);
+                    }
+                    if (references.merge(key, -1, Integer::sum) <= 0) {
+                        references.remove(key);
+                        opened.remove(key);
+                        checkpoint.close();
+                        if (finished.remove(key)) {
+                            checkpointsFinished.incrementAndGet();
+                            delete(Paths.get(dir, key).toAbsolutePath());
+                        }
+                    }
+                });
+    }
+
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        synchronized (this) {
+            stats.put("opened", opened.size());
+        }
+        stats.put("pagesSaved", pagesSaved.get());
+        stats.put("pagesRestored", pagesRestored.get());
+        stats.put("relayPagesSaved", relayPagesSaved.get());
+        stats.put("relayPagesRestored", relayPagesRestored.get());
+        stats.put("checkpointsFinished", checkpointsFinished.get());
+        return stats;
+    }
+
+    void pageSaved() {
+        pagesSaved.incrementAndGet();
+    }
+
+    void pageRestored() {
+        pagesRestored.incrementAndGet();
+    }
+
+    void relayPageSaved() {
+        relayPagesSaved.incrementAndGet();
+    }
+
+    void relayPageRestored() {
+        relayPagesRestored.incrementAndGet();
+    }
+
+    private String key(SearchQuery query, Set<Expansion> expansions) {
+        String text = query.getQ() + "|" + query.getStartTime() + "|" + query.getEndTime() + "|" + new TreeSet<>(expansions);
+        return Hashing.sha1().hashString(text, Charsets.UTF_8).toString();
+    }
+
+    /**
+     * 删除过期且没有在使用的断点
+     */
+    private void purgeExpired() {
+        Path base = Paths.get(dir);
+        if (!Files.isDirectory(base)) {
+            return;
+        }
+        long expireBefore = System.currentTimeMillis() - TimeUnit.HOURS.toMillis(ttlHours);
+        try (Stream<Path> dirs = Files.list(base)) {
+            dirs.filter(path -> !opened.containsKey(path.getFileName().toString()))
+                    .filter(path -> lastModified(path) < expireBefore)
+                    .forEach(this::delete);
+        } catch (IOException e) {
+            log.warn("purge expired checkpoints failed. dir: {} error: {}", dir, e.getMessage());
+        }
+    }
+
+    private long lastModified(Path path) {
+        try {
+            return Files.getLastModifiedTime(path).toMillis();
+        } catch (IOException e) {
+            return Long.MAX_VALUE;
+        }
+    }
+
+    private void delete(Path checkpointDir) {
+        try (Stream<Path> files = Files.walk(checkpointDir)) {
+            files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+            log.info("checkpoint deleted. dir: {}", checkpointDir);
+        } catch (IOException e) {
+            log.warn("delete checkpoint failed. dir: {} error: {}", checkpointDir, e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,311 @@
+package com.xupt.crawler.service.crawl;
+
+import com.alibaba.fastjson.JSON;
+import com.alibaba.fastjson.JSONArray;
+import com.alibaba.fastjson.JSONObject;
+import com.xupt.crawler.controller.resp.WeiboDomain;
+import com.xupt.crawler.service.model.RelayPage;
+import com.xupt.crawler.service.model.SearchQuery;
+import com.xupt.crawler.service.model.SearchShard;
+import com.xupt.crawler.service.relay.RelayPageStore;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 一次查询(关键词+时间窗口+附加信息)的抓取断点, 保存在本地目录中:
+ * <ul>
+ * <li>meta.json: 总页数, 续抓时不再请求第1页</li>
+ * <li>shards.json: 按时间窗口切分的结果, 续抓时不再探测; 各窗口的页记录在窗口自己的断点中</li>
+ * <li>page-N.json: 已完成页的全部数据, 文件存在即表示该页已完成</li>
+ * <li>relay.log: 已完成的转发页, 每行一页, 只追加; 进程中断时最后一行可能不完整, 读取时跳过.
+ * 内存中只保留每页所在的位置, 续抓时按位置读取</li>
+ * </ul>
+ * 写入失败只打印日志, 不影响抓取本身. 导出成功后由 {@link CheckpointStore} 删除
+ */
+@Slf4j
+public class CrawlCheckpoint implements RelayPageStore {
+
+    private static final String META = "meta.json";
+
+    private static final String SHARDS = "shards.json";
+
+    private static final String RELAY_LOG = "relay.log";
+
+    private final Path dir;
+
+    private final CheckpointStore store;
+
+    /**
+     * 转发页在relay.log中的位置: 起始字节和长度
+     */
+    private final Map<String, long[]> relayIndex = new ConcurrentHashMap<>();
+
+    private volatile FileChannel relayLog;
+
+    /**
+     * relay.log的长度, 新的转发页追加到这里
+     */
+    private long relayLogSize;
+
+    /**
+     * 上次中断时最后一行没有写完, 追加前先换行
+     */
+    private boolean relayLogBroken;
+
+    private boolean closed;
+
+    CrawlCheckpoint(Path dir, CheckpointStore store) throws IOException {
+        this.dir = dir;
+        this.store = store;
+        Files.createDirectories(dir);
+        loadRelayLog();
+    }
+
+    /**
+     * 未记录时返回0
+     */
+    public int getPageCount() {
+        Path meta = dir.resolve(META);
+        if (!Files.exists(meta)) {
+            return 0;
+        }
+        try {
+            return JSON.parseObject(new String(Files.readAllBytes(meta), StandardCharsets.UTF_8)).getIntValue("pageCount");
+        } catch (Exception e) {
+            log.warn("read checkpoint meta failed. dir: {} error: {}", dir, e.getMessage());
+            return 0;
+        }
+    }
+
+    public void savePageCount(int pageCount) {
+        JSONObject meta = new JSONObject();
+        meta.put("pageCount", pageCount);
+        write(dir.resolve(META), meta.toJSONString());
+    }
+
+    /**
+     * 未记录时返回null
+     */
+    public List<SearchShard> getShards(SearchQuery query) {
+        Path file = dir.resolve(SHARDS);
+        if (!Files.exists(file)) {
+            return null;
+        }
+        try {
+            List<SearchShard> shards = new ArrayList<>();
+            JSONArray array = JSON.parseArray(new String(Files.readAllBytes(file), StandardCharsets.UTF_8));
+            for (int i = 0; i < array.size(); i++) {
+                JSONObject item = array.getJSONObject(i);
+                SearchQuery window = new SearchQuery(query.getQ(), LocalDateTime.parse(item.getString("startTime")),
+                        LocalDateTime.parse(item.getString("endTime")));
+                shards.add(new SearchShard(window, item.getIntValue("pageCount")));
+            }
+            return shards;
+        } catch (Exception e) {
+            log.warn("read checkpoint shards failed. dir: {} error: {}", dir, e.getMessage());
+            return null;
+        }
+    }
+
+    public void saveShards(List<SearchShard> shards) {
+        JSONArray array = new JSONArray();
+        for (SearchShard shard : shards) {
+            JSONObject item = new JSONObject();
+            item.put("startTime", shard.getQuery().getStartTime().toString());
+            item.put("endTime", shard.getQuery().getEndTime().toString());
+            item.put("pageCount", shard.getPageCount());
+            array.add(item);
+        }
+        write(dir.resolve(SHARDS), array.toJSONString());
+    }
+
+    public boolean hasPage(int page) {
+        return Files.exists(pageFile(page));
+    }
+
+    /**
+     * 未完成或读取失败时返回null
+     */
+    public List<WeiboDomain> getPage(int page) {
+        Path file = pageFile(page);
+        if (!Files.exists(file)) {
+            return null;
+        }
+        try {
+            List<WeiboDomain> weiboDomains = JSON.parseArray(new String(Files.readAllBytes(file), StandardCharsets.UTF_8), WeiboDomain.class);
+            store.pageRestored();
+            return weiboDomains;
+        } catch (Exception e) {
+            log.warn("read checkpoint page failed. dir: {} page: {} error: {}", dir, page, e.getMessage());
+            return null;
+        }
+    }
+
+    public void savePage(int page, List<WeiboDomain> weiboDomains) {
+        if (write(pageFile(page), JSON.toJSONString(weiboDomains))) {
+            store.pageSaved();
+        }
+    }
+
+    @Override
+    public RelayPage get(String mid, int page) {
+        long[] position = relayIndex.get(relayKey(mid, page));
+        FileChannel channel = relayLog;
+        if (position == null || channel == null) {
+            return null;
+        }
+        try {
+            ByteBuffer buffer = ByteBuffer.allocate((int) position[1]);
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer, position[0] + buffer.position()) < 0) {
+                    break;
+                }
+            }
+            RelayPage relayPage = JSON.parseObject(new String(buffer.array(), 0, buffer.position(), StandardCharsets.UTF_8))
+                    .getObject("relayPage", RelayPage.class);
+            store.relayPageRestored();
+            return relayPage;
+        } catch (Exception e) {
+            log.warn("read checkpoint relay page failed. dir: {} mid: {} page: {} error: {}", dir, mid, page, e.getMessage());
+            return null;
+        }
+    }
+
+    @Override
+    public synchronized void put(String mid, int page, RelayPage relayPage) {
+        // 关闭后仍在进行的转发页请求不再记录
+        String key = relayKey(mid, page);
+        if (closed || relayIndex.containsKey(key)) {
+            return;
+        }
+        JSONObject line = new JSONObject();
+        line.put("mid", mid);
+        line.put("page", page);
+        line.put("relayPage", relayPage);
+        byte[] bytes = line.toJSONString().getBytes(StandardCharsets.UTF_8);
+        try {
+            if (relayLog == null) {
+                relayLog = FileChannel.open(dir.resolve(RELAY_LOG), StandardOpenOption.CREATE, StandardOpenOption.READ,
+                        StandardOpenOption.WRITE);
+            }
+            if (relayLogBroken) {
+                relayLogSize += writeFully(ByteBuffer.wrap(new byte[]{'\n'}), relayLogSize);
+                relayLogBroken = false;
+            }
+            ByteBuffer buffer = ByteBuffer.allocate(bytes.length + 1);
+            buffer.put(bytes).put((byte) '\n').flip();
+            long offset = relayLogSize;
+            relayLogSize += writeFully(buffer, offset);
+            relayIndex.put(key, new long[]{offset, bytes.length});
+            store.relayPageSaved();
+        } catch (IOException e) {
+            log.warn("write checkpoint relay page failed. dir: {} mid: {} page: {} error: {}", dir, mid, page, e.getMessage());
+        }
+    }
+
+    /**
+     * 最后一个使用者释放后由 {@link CheckpointStore} 调用; 导出没有完成时断点文件保留, 重试时直接复用
+     */
+    synchronized void close() {
+        closed = true;
+        if (relayLog != null) {
+            try {
+                relayLog.close();
+            } catch (IOException e) {
+                log.warn("close checkpoint relay log failed. dir: {} error: {}", dir, e.getMessage());
+            }
+            relayLog = null;
+        }
+        relayIndex.clear();
+    }
+
+    private int writeFully(ByteBuffer buffer, long offset) throws IOException {
+        int length = buffer.remaining();
+        while (buffer.hasRemaining()) {
+            relayLog.write(buffer, offset + length - buffer.remaining());
+        }
+        return length;
+    }
+
+    /**
+     * 逐行扫描relay.log建立位置索引, 不保留转发页内容
+     */
+    private void loadRelayLog() throws IOException {
+        Path file = dir.resolve(RELAY_LOG);
+        if (!Files.exists(file)) {
+            return;
+        }
+        relayLog = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        relayLogSize = relayLog.size();
+        try (InputStream in = new BufferedInputStream(Files.newInputStream(file))) {
+            ByteArrayOutputStream text = new ByteArrayOutputStream();
+            long offset = 0;
+            long position = 0;
+            int b;
+            while ((b = in.read()) != -1) {
+                position++;
+                if (b != '\n') {
+                    text.write(b);
+                    continue;
+                }
+                indexRelayLine(text, offset);
+                text.reset();
+                offset = position;
+            }
+            // 没有换行结尾的最后一行是中断时没有写完的
+            relayLogBroken = text.size() > 0;
+        }
+    }
+
+    private void indexRelayLine(ByteArrayOutputStream text, long offset) {
+        if (text.size() == 0) {
+            return;
+        }
+        try {
+            JSONObject line = JSON.parseObject(new String(text.toByteArray(), StandardCharsets.UTF_8));
+            relayIndex.put(relayKey(line.getString("mid"), line.getIntValue("page")), new long[]{offset, text.size()});
+        } catch (Exception e) {
+            log.warn("skip broken checkpoint relay line. dir: {} error: {}", dir, e.getMessage());
+        }
+    }
+
+    /**
+     * 先写临时文件再改名, 中断时不会留下不完整的文件
+     */
+    private boolean write(Path file, String content) {
+        try {
+            // 同一查询的多个导出共用断点时临时文件不能重名
+            Path tmp = Files.createTempFile(dir, file.getFileName().toString(), ".tmp");
+            Files.write(tmp, content.getBytes(StandardCharsets.UTF_8));
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            return true;
+        } catch (IOException e) {
+            log.warn("write checkpoint failed. file: {} error: {}", file, e.getMessage());
+            return false;
+        }
+    }
+
+    private Path pageFile(int page) {
+        return dir.resolve("page-" + page + ".json");
+    }
+
+    private static String relayKey(String mid, int page) {
+        return mid + "#" + page;
+    }
+}
@@ -0,0 +1,34 @@
+package com.xupt.crawler.service.crawl;
+
+/**
+ * 整页抓取的进度回调, 在抓取线程上执行, 不能阻塞
+ */
+public interface CrawlListener {
+
+    CrawlListener NONE = new CrawlListener() {
+    };
+
+    /**
+     * 总页数确定后回调一次
+     */
+    default void onPageCount(int pageCount) {
+    }
+
+    /**
+     * 开始请求第page页, 从断点读取的页不回调
+     */
+    default void onPageRequested(int page) {
+    }
+
+    /**
+     * 第page页完成, 从断点读取的页在被读取时回调
+     */
+    default void onPageDone(int page, int posts) {
+    }
+
+    /**
+     * 失败的页按空页返回, 不影响其他页
+     */
+    default void onPageFailed(int page, Throwable e) {
+    }
+}
@@ -0,0 +1,233 @@
+package com.xupt.crawler.service.crawl;
+
+import com.xupt.crawler.controller.resp.WeiboDomain;
+import com.xupt.crawler.service.WeiBoJsonpHtmlService;
+import com.xupt.crawler.service.WeiBoSearchService;
+import com.xupt.crawler.service.model.Expansion;
+import com.xupt.crawler.service.model.SearchPage;
+import com.xupt.crawler.service.model.SearchQuery;
+import com.xupt.crawler.service.model.SearchShard;
+import com.xupt.crawler.utils.concurrent.Futures;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * 导出和后台任务的整页抓取: 按页码顺序返回每页的数据, 同时处理的页数有上限,
+ * 前面的页被读取后才开始抓取后面的页, 内存占用只与同时处理的页数有关.
+ * 开启断点时已完成的页直接从断点读取, 新完成的页和转发页写入断点; 调用方写出成功后
+ * {@link PageCursor#complete()}, 没有页失败时删除断点
+ */
+@Slf4j
+@Component
+public class PageCrawler {
+
+    @Autowired
+    private WeiBoSearchService weiBoSearchService;
+
+    @Autowired
+    private WeiBoJsonpHtmlService weiBoJsonpHtmlService;
+
+    @Autowired
+    private CheckpointStore checkpointStore;
+
+    @Autowired
+    private ShardPlanner shardPlanner;
+
+    @Autowired
+    @Qualifier("crawlerScheduler")
+    private Executor scheduler;
+
+    /**
+     * 同时处理的搜索结果页数
+     */
+    @Value("${crawler.fanOut.pages:4}")
+    private int pageParallelism;
+
+    /**
+     * 切分抓取时所有窗口同时处理的页数
+     */
+    @Value("${crawler.shard.pages:16}")
+    private int shardPageParallelism;
+
+    /**
+     * 开始整页抓取: 断点中已记录总页数时不再请求第1页, 否则先请求第1页拿到总页数.
+     * 第1页请求失败时返回的future失败, 此时还没有开始抓取其他页; 取消返回的future时同时取消第1页请求
+     *
+     * @param checkpointed 是否使用断点
+     */
+    public CompletableFuture<PageCursor> start(SearchQuery query, String cookie, Set<Expansion> expansions,
+                                               CrawlListener listener, boolean checkpointed) {
+        CrawlCheckpoint checkpoint = checkpointed ? checkpointStore.open(query, expansions) : null;
+        int storedPageCount = checkpoint == null ? 0 : checkpoint.getPageCount();
+        if (storedPageCount > 0) {
+            log.info("resume crawl from checkpoint. q: {} pageCount: {}", query.getQ(), storedPageCount);
+            return CompletableFuture.completedFuture(crawl(query, storedPageCount, null, cookie, expansions, listener, checkpoint));
+        }
+        listener.onPageRequested(1);
+        CompletableFuture<SearchPage> firstPageFuture = weiBoSearchService.getPage(query, 1, cookie);
+        CompletableFuture<PageCursor> cursor = Futures.cancelling(firstPageFuture.thenApply(firstPage -> {
+            if (checkpoint != null) {
+                checkpoint.savePageCount(firstPage.getPageCount());
+            }
+            return crawl(query, firstPage.getPageCount(), firstPage, cookie, expansions, listener, checkpoint);
+        }), firstPageFuture);
+        cursor.whenComplete((pages, e) -> {
+            if (e != null) {
+                checkpointStore.release(checkpoint);
+            }
+        });
+        return cursor;
+    }
+
+    /**
+     * 按时间窗口切分后抓取, 突破单次搜索的页数上限, 各窗口的页共用一个抓取窗口, 按时间顺序返回.
+     * 页码按窗口顺序连续编号, 探测时请求到的各窗口第1页直接使用. 起止时间为空时不切分
+     *
+     * @param checkpointed 是否使用断点, 切分结果记录在整个查询的断点中, 各窗口的页记录在窗口自己的断点中
+     */
+    public CompletableFuture<PageCursor> startSharded(SearchQuery query, String cookie, Set<Expansion> expansions,
+                                                      CrawlListener listener, boolean checkpointed) {
+        if (query.getStartTime() == null || query.getEndTime() == null) {
+            return start(query, cookie, expansions, listener, checkpointed);
+        }
+        CrawlCheckpoint checkpoint = checkpointed ? checkpointStore.open(query, expansions) : null;
+        List<SearchShard> storedShards = checkpoint == null ? null : checkpoint.getShards(query);
+        CompletableFuture<List<SearchShard>> shardsFuture;
+        if (storedShards != null) {
+            log.info("resume sharded crawl from checkpoint. q: {} shards: {}", query.getQ(), storedShards.size());
+            shardsFuture = CompletableFuture.completedFuture(storedShards);
+        } else {
+            CompletableFuture<List<SearchShard>> planned = shardPlanner.plan(query, cookie);
+            shardsFuture = Futures.cancelling(planned.thenApply(shards -> {
+                if (checkpoint != null) {
+                    checkpoint.saveShards(shards);
+                }
+                return shards;
+            }), planned);
+        }
+        CompletableFuture<PageCursor> cursor = Futures.cancelling(shardsFuture.thenApply(
+                shards -> crawlShards(shards, cookie, expansions, listener, checkpointed, checkpoint)), shardsFuture);
+        cursor.whenComplete((pages, e) -> {
+            if (e != null) {
+                checkpointStore.release(checkpoint);
+            }
+        });
+        return cursor;
+    }
+
+    /**
+     * @param firstPage 已经请求过的第1页, 从断点续抓时为null
+     */
+    private PageCursor crawl(SearchQuery query, int pageCount, SearchPage firstPage, String cookie, Set<Expansion> expansions,
+                             CrawlListener listener, CrawlCheckpoint checkpoint) {
+        listener.onPageCount(pageCount);
+        List<Supplier<CompletableFuture<List<WeiboDomain>>>> pages = new ArrayList<>();
+        AtomicBoolean failed = new AtomicBoolean();
+        addPages(pages, 0, query, pageCount, firstPage, cookie, expansions, listener, checkpoint, failed);
+        return new PageCursor(pageCount, pages, pageParallelism,
+                completed -> checkpointStore.release(checkpoint, completed && !failed.get()));
+    }
+
+    private PageCursor crawlShards(List<SearchShard> shards, String cookie, Set<Expansion> expansions, CrawlListener listener,
+                                   boolean checkpointed, CrawlCheckpoint planCheckpoint) {
+        int pageCount = shards.stream().mapToInt(SearchShard::getPageCount).sum();
+        listener.onPageCount(pageCount);
+        List<Supplier<CompletableFuture<List<WeiboDomain>>>> pages = new ArrayList<>();
+        List<CrawlCheckpoint> checkpoints = new ArrayList<>();
+        checkpoints.add(planCheckpoint);
+        AtomicBoolean failed = new AtomicBoolean();
+        int offset = 0;
+        for (SearchShard shard : shards) {
+            CrawlCheckpoint checkpoint = checkpointed ? checkpointStore.open(shard.getQuery(), expansions) : null;
+            checkpoints.add(checkpoint);
+            addPages(pages, offset, shard.getQuery(), shard.getPageCount(), shard.getFirstPage(), cookie, expansions, listener, checkpoint, failed);
+            offset += shard.getPageCount();
+        }
+        return new PageCursor(pageCount, pages, shardPageParallelism,
+                completed -> checkpoints.forEach(checkpoint -> checkpointStore.release(checkpoint, completed && !failed.get())));
+    }
+
+    /**
+     * 把一次搜索的所有页加入读取队列, 由PageCursor按窗口启动
+     *
+     * @param offset 回调listener时页码的偏移, 切分抓取时为前面窗口的总页数
+     * @param failed 有页失败时置为true, 此时即使导出完成也保留断点
+     */
+    private void addPages(List<Supplier<CompletableFuture<List<WeiboDomain>>>> pages, int offset,
+                          SearchQuery query, int pageCount, SearchPage firstPage, String cookie, Set<Expansion> expansions,
+                          CrawlListener listener, CrawlCheckpoint checkpoint, AtomicBoolean failed) {
+        for (int i = 1; i <= pageCount; i++) {
+            int pageNum = i;
+            int listenerPage = offset + i;
+            // 已完成的页在启动时才从断点加载, 不提前占用内存
+            if (checkpoint != null && checkpoint.hasPage(pageNum)) {
+                pages.add(() -> {
+                    List<WeiboDomain> stored = checkpoint.getPage(pageNum);
+                    if (stored == null) {
+                        failed.set(true);
+                        listener.onPageFailed(listenerPage, new RuntimeException(String.format("read checkpoint page failed, page: %s", pageNum)));
+                        return CompletableFuture.completedFuture(Collections.emptyList());
+                    }
+                    listener.onPageDone(listenerPage, stored.size());
+                    return CompletableFuture.completedFuture(stored);
+                });
+                continue;
+            }
+            pages.add(() -> {
+                // 关闭PageCursor时取消的是最后一个阶段, 逐级传回搜索页、主页和转发页请求
+                CompletableFuture<SearchPage> searchPage = Futures.thenCompose(CompletableFuture.supplyAsync(
+                        () -> fetchPage(query, pageNum, firstPage, cookie, listener, listenerPage), scheduler), Function.identity());
+                CompletableFuture<List<WeiboDomain>> parsed = Futures.thenCompose(searchPage,
+                        page -> parsePage(page, pageNum, cookie, expansions, checkpoint));
+                return Futures.cancelling(parsed.handle((weiboDomains, e) -> {
+                    if (e != null) {
+                        log.error("get page data exception. q: {} startTime: {} page: {} error is ", query.getQ(), query.getStartTime(), pageNum, e);
+                        failed.set(true);
+                        listener.onPageFailed(listenerPage, e);
+                        return Collections.<WeiboDomain>emptyList();
+                    }
+                    listener.onPageDone(listenerPage, weiboDomains.size());
+                    return weiboDomains;
+                }), parsed);
+            });
+        }
+    }
+
+    private CompletableFuture<List<WeiboDomain>> parsePage(SearchPage searchPage, int page, String cookie, Set<Expansion> expansions,
+                                                           CrawlCheckpoint checkpoint) {
+        if (checkpoint == null) {
+            return weiBoJsonpHtmlService.parseDataAsync(searchPage, cookie, expansions);
+        }
+        CompletableFuture<List<WeiboDomain>> parsed = weiBoJsonpHtmlService.parseDataAsync(searchPage, cookie, expansions, weiboDomain -> {
+        }, checkpoint);
+        return Futures.cancelling(parsed.thenApply(weiboDomains -> {
+            // 有微博处理失败时不记录该页, 续抓时整页重新处理, 已完成的转发页不再请求
+            if (weiboDomains.size() == searchPage.getCards().size()) {
+                checkpoint.savePage(page, weiboDomains);
+            }
+            return weiboDomains;
+        }), parsed);
+    }
+
+    private CompletableFuture<SearchPage> fetchPage(SearchQuery query, int page, SearchPage firstPage, String cookie,
+                                                    CrawlListener listener, int listenerPage) {
+        if (page == 1 && firstPage != null) {
+            return CompletableFuture.completedFuture(firstPage);
+        }
+        listener.onPageRequested(listenerPage);
+        return weiBoSearchService.getPage(query, page, cookie);
+    }
+}
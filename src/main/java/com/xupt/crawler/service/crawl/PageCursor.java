@@ -0,0 +1,110 @@
+package com.xupt.crawler.service.crawl;
+
+import com.xupt.crawler.controller.resp.WeiboDomain;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+/**
+ * 按页码顺序读取整页抓取的结果, 用完或中途放弃时必须 {@link #close()}, 取消还未完成的页.
+ * 同时启动的页数不超过window: 第N页被读取后才启动第N+window页, 写出或客户端变慢时抓取也随之变慢,
+ * 内存中最多只有window页的数据
+ */
+public class PageCursor implements Iterator<List<WeiboDomain>>, AutoCloseable {
+
+    private final int pageCount;
+
+    /**
+     * 启动后移出队列, 不再引用启动函数中的数据(如切分时探测到的第1页)
+     */
+    private final Deque<Supplier<CompletableFuture<List<WeiboDomain>>>> pending;
+
+    private final Deque<CompletableFuture<List<WeiboDomain>>> started = new ArrayDeque<>();
+
+    private final Consumer<Boolean> onClose;
+
+    private boolean completed;
+
+    private boolean closed;
+
+    /**
+     * @param pages   每页的启动函数, 返回的future失败时按异常抛出, 需要容错的页自行处理
+     * @param onClose 关闭时执行, 参数为是否已调用 {@link #complete()}
+     */
+    PageCursor(int pageCount, List<Supplier<CompletableFuture<List<WeiboDomain>>>> pages, int window, Consumer<Boolean> onClose) {
+        this.pageCount = pageCount;
+        this.pending = new ArrayDeque<>(pages);
+        this.onClose = onClose;
+        for (int i = 0; i < Math.max(window, 1) && !pending.isEmpty(); i++) {
+            startNext();
+        }
+    }
+
+    public int getPageCount() {
+        return pageCount;
+    }
+
+    @Override
+    public boolean hasNext() {
+        return !started.isEmpty();
+    }
+
+    @Override
+    public List<WeiboDomain> next() {
+        CompletableFuture<List<WeiboDomain>> page = started.poll();
+        if (page == null) {
+            throw new NoSuchElementException();
+        }
+        // 异步请求超时或任务停止时线程会被中断, 此时不再等待剩余的页
+        List<WeiboDomain> weiboDomains;
+        try {
+            weiboDomains = page.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("crawl pages interrupted", e);
+        } catch (ExecutionException e) {
+            throw new RuntimeException("crawl pages failed", e.getCause());
+        }
+        if (!pending.isEmpty()) {
+            startNext();
+        }
+        return weiboDomains;
+    }
+
+    /**
+     * 所有页都已读取并写出成功后调用, 关闭时删除断点, 之后重复导出时重新抓取; 还有页没有读取时忽略
+     */
+    public void complete() {
+        completed = started.isEmpty() && pending.isEmpty();
+    }
+
+    @Override
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        started.forEach(page -> page.cancel(false));
+        started.clear();
+        pending.clear();
+        onClose.accept(completed);
+    }
+
+    private void startNext() {
+        CompletableFuture<List<WeiboDomain>> page;
+        try {
+            page = pending.poll().get();
+        } catch (RuntimeException e) {
+            page = new CompletableFuture<>();
+            page.completeExceptionally(e);
+        }
+        started.add(page);
+    }
+}
@@ -0,0 +1,154 @@
+package com.xupt.crawler.service.crawl;
+
+import com.xupt.crawler.service.WeiBoSearchService;
+import com.xupt.crawler.service.model.SearchPage;
+import com.xupt.crawler.service.model.SearchQuery;
+import com.xupt.crawler.service.model.SearchShard;
+import com.xupt.crawler.utils.concurrent.FanOutScope;
+import com.xupt.crawler.utils.concurrent.Futures;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+
+/**
+ * 按时间窗口切分搜索: 一次搜索最多只能翻到pageCap页, 超出的结果拿不到.
+ * 先按initialHours切成若干窗口, 并发探测每个窗口的第1页, 总页数达到上限的窗口按小时对半切分后再探测,
+ * 直到不足上限或只剩1小时(timescope只精确到小时, 无法再切分). 没有结果的窗口不参与抓取
+ */
+@Slf4j
+@Component
+public class ShardPlanner {
+
+    @Autowired
+    private WeiBoSearchService weiBoSearchService;
+
+    @Autowired
+    @Qualifier("crawlerScheduler")
+    private Executor scheduler;
+
+    /**
+     * 搜索结果最多能翻到的页数
+     */
+    @Value("${crawler.shard.pageCap:50}")
+    private int pageCap;
+
+    /**
+     * 初始窗口的小时数
+     */
+    @Value("${crawler.shard.initialHours:24}")
+    private int initialHours;
+
+    /**
+     * 同时探测的窗口数
+     */
+    @Value("${crawler.shard.probes:8}")
+    private int probeParallelism;
+
+    /**
+     * 按时间顺序返回切分后的窗口, 起止时间为空的查询不切分.
+     * 探测请求失败时返回的future失败, 避免漏掉某个窗口的结果
+     */
+    public CompletableFuture<List<SearchShard>> plan(SearchQuery query, String cookie) {
+        if (query.getStartTime() == null || query.getEndTime() == null) {
+            CompletableFuture<SearchPage> firstPageFuture = weiBoSearchService.getPage(query, 1, cookie);
+            return Futures.cancelling(firstPageFuture.thenApply(firstPage -> toShards(query, firstPage)), firstPageFuture);
+        }
+        List<SearchQuery> windows = new ArrayList<>();
+        LocalDateTime start = query.getStartTime();
+        while (start.isBefore(query.getEndTime())) {
+            LocalDateTime end = start.plusHours(Math.max(initialHours, 1));
+            if (end.isAfter(query.getEndTime())) {
+                end = query.getEndTime();
+            }
+            windows.add(new SearchQuery(query.getQ(), start, end));
+            start = end;
+        }
+        CompletableFuture<List<SearchShard>> probed = probe(windows, cookie, 1);
+        return Futures.cancelling(probed.thenApply(shards -> {
+            log.info("search sharded. q: {} shards: {} pageCount: {}", query.getQ(), shards.size(),
+                    shards.stream().mapToInt(SearchShard::getPageCount).sum());
+            return shards;
+        }), probed);
+    }
+
+    /**
+     * 一轮探测, 达到上限的窗口切分后进入下一轮, 结果保持时间顺序
+     */
+    private CompletableFuture<List<SearchShard>> probe(List<SearchQuery> windows, String cookie, int round) {
+        FanOutScope<SearchPage> scope = new FanOutScope<>(scheduler, probeParallelism);
+        windows.forEach(window -> scope.fork(() -> weiBoSearchService.getPage(window, 1, cookie)));
+        CompletableFuture<List<SearchShard>> result = Futures.thenCompose(scope.join(), firstPages -> {
+            List<Object> planned = new ArrayList<>();
+            List<SearchQuery> splits = new ArrayList<>();
+            for (int i = 0; i < windows.size(); i++) {
+                SearchQuery window = windows.get(i);
+                SearchPage firstPage = firstPages.get(i);
+                long hours = Duration.between(window.getStartTime(), window.getEndTime()).toHours();
+                if (firstPage.getPageCount() < pageCap || hours <= 1) {
+                    if (firstPage.getPageCount() >= pageCap) {
+                        log.warn("search shard reaches page cap and can not be split. q: {} startTime: {} pageCount: {}",
+                                window.getQ(), window.getStartTime(), firstPage.getPageCount());
+                    }
+                    planned.addAll(toShards(window, firstPage));
+                    continue;
+                }
+                LocalDateTime middle = window.getStartTime().plusHours(hours / 2);
+                SearchQuery left = new SearchQuery(window.getQ(), window.getStartTime(), middle);
+                SearchQuery right = new SearchQuery(window.getQ(), middle, window.getEndTime());
+                // 占位, 下一轮探测完成后替换成切分后的窗口
+                planned.add(window);
+                splits.add(left);
+                splits.add(right);
+            }
+            if (splits.isEmpty()) {
+                return CompletableFuture.completedFuture(toList(planned, null));
+            }
+            log.info("search shards split. q: {} round: {} windows: {}", windows.get(0).getQ(), round, splits.size());
+            CompletableFuture<List<SearchShard>> children = probe(splits, cookie, round + 1);
+            return Futures.cancelling(children.thenApply(shards -> toList(planned, shards)), children);
+        });
+        // 取消时不再启动排队中的探测, 正在进行的请求随之取消
+        result.whenComplete((shards, e) -> {
+            if (result.isCancelled()) {
+                scope.cancel();
+            }
+        });
+        return result;
+    }
+
+    /**
+     * 把占位的窗口替换成下一轮探测得到的窗口, children按时间顺序排列, 开始时间落在占位窗口内的都属于该窗口
+     */
+    private List<SearchShard> toList(List<Object> planned, List<SearchShard> children) {
+        List<SearchShard> shards = new ArrayList<>();
+        int next = 0;
+        for (Object item : planned) {
+            if (item instanceof SearchShard) {
+                shards.add((SearchShard) item);
+                continue;
+            }
+            SearchQuery window = (SearchQuery) item;
+            while (next < children.size() && children.get(next).getQuery().getStartTime().isBefore(window.getEndTime())) {
+                shards.add(children.get(next++));
+            }
+        }
+        return shards;
+    }
+
+    private List<SearchShard> toShards(SearchQuery window, SearchPage firstPage) {
+        List<SearchShard> shards = new ArrayList<>();
+        if (firstPage.getPageCount() > 1 || !firstPage.getCards().isEmpty()) {
+            shards.add(new SearchShard(window, firstPage.getPageCount(), firstPage));
+        }
+        return shards;
+    }
+}
@@ -0,0 +1,91 @@
+package com.xupt.crawler.service.graph;
+
+/**
+ * long到int的开放寻址哈希表, 不装箱, 每个元素只占一个long和一个int
+ */
+final class LongIntMap {
+
+    private static final long GOLDEN_RATIO = 0x9E3779B97F4A7C15L;
+
+    private long[] keys;
+
+    /**
+     * 保存 value + 1, 0表示空槽
+     */
+    private int[] values;
+
+    private int size;
+
+    LongIntMap(int expectedSize) {
+        int capacity = Integer.highestOneBit(Math.max(4, expectedSize * 2 - 1)) << 1;
+        keys = new long[capacity];
+        values = new int[capacity];
+    }
+
+    /**
+     * 不存在时返回-1
+     */
+    int get(long key) {
+        int mask = keys.length - 1;
+        for (int i = hash(key) & mask; ; i = (i + 1) & mask) {
+            if (values[i] == 0) {
+                return -1;
+            }
+            if (keys[i] == key) {
+                return values[i] - 1;
+            }
+        }
+    }
+
+    void put(long key, int value) {
+        if ((size + 1) * 2 > keys.length) {
+            resize();
+        }
+        if (insert(keys, values, key, value + 1)) {
+            size++;
+        }
+    }
+
+    int size() {
+        return size;
+    }
+
+    long estimatedBytes() {
+        return (long) keys.length * (Long.BYTES + Integer.BYTES);
+    }
+
+    private void resize() {
+        long[] newKeys = new long[keys.length << 1];
+        int[] newValues = new int[values.length << 1];
+        for (int i = 0; i < keys.length; i++) {
+            if (values[i] != 0) {
+                insert(newKeys, newValues, keys[i], values[i]);
+            }
+        }
+        keys = newKeys;
+        values = newValues;
+    }
+
+    /**
+     * 返回是否是新增的key
+     */
+    private static boolean insert(long[] keys, int[] values, long key, int storedValue) {
+        int mask = keys.length - 1;
+        for (int i = hash(key) & mask; ; i = (i + 1) & mask) {
+            if (values[i] == 0) {
+                keys[i] = key;
+                values[i] = storedValue;
+                return true;
+            }
+            if (keys[i] == key) {
+                values[i] = storedValue;
+                return false;
+            }
+        }
+    }
+
+    private static int hash(long key) {
+        long h = key * GOLDEN_RATIO;
+        return (int) (h ^ (h >>> 32));
+    }
+}
@@ -0,0 +1,475 @@
+package com.xupt.crawler.service.graph;
+
+import com.xupt.crawler.service.model.RelayUser;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.util.StringUtils;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * 转发关系图: 微博(mid) → 作者(uid) → 转发用户(uid)
+ * <p>
+ * 用户按uid映射为连续的int编号, uid和昵称每个用户只保存一份, 昵称统一放在一个char数组中.
+ * 每条微博的转发用户编号去重排序后连续存放在一个int数组里(CSR), 一条边只占4个字节,
+ * 两条微博的受众重合度可以直接归并计算. 同一条微博重新抓到更多转发时追加新的区间, 旧区间在废弃边过多时统一压缩.
+ * 边数或微博数超过上限时淘汰最早加入的微博, 只保留最近的一半, 不再被引用的用户一并移除
+ */
+@Slf4j
+@Component
+public class RelayGraphStore {
+
+    private static final int INITIAL_CAPACITY = 1024;
+
+    private static final int NO_POST = -1;
+
+    /**
+     * 保留的边数上限, 每条边4个字节
+     */
+    @Value("${crawler.relayGraph.maxEdges:20000000}")
+    private int maxEdges;
+
+    @Value("${crawler.relayGraph.maxPosts:1000000}")
+    private int maxPosts;
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    private LongIntMap nodeIndex = new LongIntMap(INITIAL_CAPACITY);
+
+    private long[] nodeUids = new long[INITIAL_CAPACITY];
+
+    private int[] nameStarts = new int[INITIAL_CAPACITY];
+
+    private int[] nameEnds = new int[INITIAL_CAPACITY];
+
+    /**
+     * 该用户发布的最后一条微博, 与 {@link #nextPostOfAuthor} 组成链表
+     */
+    private int[] lastPostOfNode = new int[INITIAL_CAPACITY];
+
+    private int nodeCount;
+
+    private char[] nameChars = new char[INITIAL_CAPACITY * 8];
+
+    private int nameLength;
+
+    private LongIntMap postIndex = new LongIntMap(INITIAL_CAPACITY);
+
+    private long[] postMids = new long[INITIAL_CAPACITY];
+
+    private int[] postAuthors = new int[INITIAL_CAPACITY];
+
+    private int[] nextPostOfAuthor = new int[INITIAL_CAPACITY];
+
+    private int[] edgeStarts = new int[INITIAL_CAPACITY];
+
+    private int[] edgeCounts = new int[INITIAL_CAPACITY];
+
+    private int postCount;
+
+    private int[] edges = new int[INITIAL_CAPACITY * 16];
+
+    private int edgeLength;
+
+    private int deadEdges;
+
+    private long evictedPosts;
+
+    /**
+     * uid或mid不是数字的数据直接丢弃
+     */
+    public void addPost(String mid, String authorUid, String authorName, List<RelayUser> relayers) {
+        long midValue = parseId(mid);
+        long authorValue = parseId(authorUid);
+        if (midValue < 0 || authorValue < 0) {
+            log.warn("skip relay graph post with invalid id. mid: {} uid: {}", mid, authorUid);
+            return;
+        }
+        lock.writeLock().lock();
+        try {
+            int author = node(authorValue, authorName);
+            int[] relayerNodes = new int[relayers.size()];
+            int count = 0;
+            for (RelayUser relayer : relayers) {
+                long relayerValue = parseId(relayer.getUid());
+                if (relayerValue >= 0) {
+                    relayerNodes[count++] = node(relayerValue, relayer.getName());
+                }
+            }
+            Arrays.sort(relayerNodes, 0, count);
+            count = unique(relayerNodes, count);
+
+            int post = postIndex.get(midValue);
+            if (post == NO_POST) {
+                post = newPost(midValue, author);
+            } else if (count <= edgeCounts[post]) {
+                return;
+            } else {
+                deadEdges += edgeCounts[post];
+            }
+            ensureEdgeCapacity(count);
+            System.arraycopy(relayerNodes, 0, edges, edgeLength, count);
+            edgeStarts[post] = edgeLength;
+            edgeCounts[post] = count;
+            edgeLength += count;
+            if (deadEdges > INITIAL_CAPACITY && deadEdges > edgeLength - deadEdges) {
+                compact();
+            }
+            if (edgeLength - deadEdges > maxEdges || postCount > maxPosts) {
+                evictOldest();
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * 按被转发的总人数(作者所有微博的转发用户数之和)排序的前limit个作者
+     */
+    public List<Map<String, Object>> topSpreaders(int limit) {
+        lock.readLock().lock();
+        try {
+            int[] reach = new int[nodeCount];
+            int[] posts = new int[nodeCount];
+            int[] relayed = new int[nodeCount];
+            for (int post = 0; post < postCount; post++) {
+                reach[postAuthors[post]] += edgeCounts[post];
+                posts[postAuthors[post]]++;
+                for (int i = edgeStarts[post], end = i + edgeCounts[post]; i < end; i++) {
+                    relayed[edges[i]]++;
+                }
+            }
+            PriorityQueue<Integer> top = new PriorityQueue<>((a, b) -> reach[a] != reach[b] ? Integer.compare(reach[a], reach[b]) : Integer.compare(b, a));
+            for (int node = 0; node < nodeCount; node++) {
+                if (posts[node] == 0) {
+                    continue;
+                }
+                top.offer(node);
+                if (top.size() > limit) {
+                    top.poll();
+                }
+            }
+            List<Map<String, Object>> result = new ArrayList<>(top.size());
+            while (!top.isEmpty()) {
+                int node = top.poll();
+                Map<String, Object> spreader = new LinkedHashMap<>();
+                spreader.put("uid", String.valueOf(nodeUids[node]));
+                spreader.put("name", name(node));
+                spreader.put("posts", posts[node]);
+                spreader.put("relayers", reach[node]);
+                spreader.put("relayed", relayed[node]);
+                result.add(0, spreader);
+            }
+            return result;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * 从微博作者出发沿 作者 → 转发用户 广度优先遍历, 转发用户自己的微博被转发时继续向下一层;
+     * 微博不存在时返回null
+     */
+    public Map<String, Object> depth(String mid, int maxDepth) {
+        long midValue = parseId(mid);
+        lock.readLock().lock();
+        try {
+            int post = midValue < 0 ? NO_POST : postIndex.get(midValue);
+            if (post == NO_POST) {
+                return null;
+            }
+            BitSet visited = new BitSet(nodeCount);
+            visited.set(postAuthors[post]);
+            int[] frontier = new int[edgeCounts[post]];
+            int frontierSize = 0;
+            for (int i = edgeStarts[post], end = i + edgeCounts[post]; i < end; i++) {
+                if (!visited.get(edges[i])) {
+                    visited.set(edges[i]);
+                    frontier[frontierSize++] = edges[i];
+                }
+            }
+            List<Integer> levels = new ArrayList<>();
+            int reached = 0;
+            while (frontierSize > 0 && levels.size() < maxDepth) {
+                levels.add(frontierSize);
+                reached += frontierSize;
+                int[] next = new int[16];
+                int nextSize = 0;
+                for (int f = 0; f < frontierSize; f++) {
+                    for (int p = lastPostOfNode[frontier[f]]; p != NO_POST; p = nextPostOfAuthor[p]) {
+                        for (int i = edgeStarts[p], end = i + edgeCounts[p]; i < end; i++) {
+                            if (!visited.get(edges[i])) {
+                                visited.set(edges[i]);
+                                if (nextSize == next.length) {
+                                    next = Arrays.copyOf(next, nextSize << 1);
+                                }
+                                next[nextSize++] = edges[i];
+                            }
+                        }
+                    }
+                }
+                frontier = next;
+                frontierSize = nextSize;
+            }
+            Map<String, Object> result = new LinkedHashMap<>();
+            result.put("mid", mid);
+            result.put("author", String.valueOf(nodeUids[postAuthors[post]]));
+            result.put("depth", levels.size());
+            result.put("reached", reached);
+            result.put("levels", levels);
+            return result;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * 两条微博转发用户的交集; 任意一条微博不存在时返回null
+     */
+    public Map<String, Object> overlap(String midA, String midB) {
+        long midAValue = parseId(midA);
+        long midBValue = parseId(midB);
+        lock.readLock().lock();
+        try {
+            int postA = midAValue < 0 ? NO_POST : postIndex.get(midAValue);
+            int postB = midBValue < 0 ? NO_POST : postIndex.get(midBValue);
+            if (postA == NO_POST || postB == NO_POST) {
+                return null;
+            }
+            int i = edgeStarts[postA];
+            int endA = i + edgeCounts[postA];
+            int j = edgeStarts[postB];
+            int endB = j + edgeCounts[postB];
+            int common = 0;
+            while (i < endA && j < endB) {
+                if (edges[i] < edges[j]) {
+                    i++;
+                } else if (edges[i] > edges[j]) {
+                    j++;
+                } else {
+                    common++;
+                    i++;
+                    j++;
+                }
+            }
+            int union = edgeCounts[postA] + edgeCounts[postB] - common;
+            Map<String, Object> result = new LinkedHashMap<>();
+            result.put("midA", midA);
+            result.put("relayersA", edgeCounts[postA]);
+            result.put("midB", midB);
+            result.put("relayersB", edgeCounts[postB]);
+            result.put("common", common);
+            result.put("jaccard", union == 0 ? 0D : (double) common / union);
+            return result;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public Map<String, Object> getStats() {
+        lock.readLock().lock();
+        try {
+            long bytes = nodeIndex.estimatedBytes() + postIndex.estimatedBytes()
+                    + (long) nodeUids.length * (Long.BYTES + 3 * Integer.BYTES)
+                    + (long) postMids.length * (Long.BYTES + 4 * Integer.BYTES)
+                    + (long) edges.length * Integer.BYTES
+                    + (long) nameChars.length * Character.BYTES;
+            Map<String, Object> stats = new LinkedHashMap<>();
+            stats.put("posts", postCount);
+            stats.put("users", nodeCount);
+            stats.put("edges", edgeLength - deadEdges);
+            stats.put("deadEdges", deadEdges);
+            stats.put("evictedPosts", evictedPosts);
+            stats.put("estimatedBytes", bytes);
+            return stats;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * 用户编号, 不存在时新建; 昵称只在第一次出现时保存
+     */
+    private int node(long uid, String name) {
+        int node = nodeIndex.get(uid);
+        if (node != -1) {
+            return node;
+        }
+        if (nodeCount == nodeUids.length) {
+            int capacity = nodeCount << 1;
+            nodeUids = Arrays.copyOf(nodeUids, capacity);
+            nameStarts = Arrays.copyOf(nameStarts, capacity);
+            nameEnds = Arrays.copyOf(nameEnds, capacity);
+            lastPostOfNode = Arrays.copyOf(lastPostOfNode, capacity);
+        }
+        node = nodeCount++;
+        nodeIndex.put(uid, node);
+        nodeUids[node] = uid;
+        lastPostOfNode[node] = NO_POST;
+        String safeName = StringUtils.isEmpty(name) ? "" : name;
+        if (nameLength + safeName.length() > nameChars.length) {
+            nameChars = Arrays.copyOf(nameChars, Math.max(nameChars.length << 1, nameLength + safeName.length()));
+        }
+        safeName.getChars(0, safeName.length(), nameChars, nameLength);
+        nameStarts[node] = nameLength;
+        nameLength += safeName.length();
+        nameEnds[node] = nameLength;
+        return node;
+    }
+
+    private String name(int node) {
+        return new String(nameChars, nameStarts[node], nameEnds[node] - nameStarts[node]);
+    }
+
+    private int newPost(long mid, int author) {
+        if (postCount == postMids.length) {
+            int capacity = postCount << 1;
+            postMids = Arrays.copyOf(postMids, capacity);
+            postAuthors = Arrays.copyOf(postAuthors, capacity);
+            nextPostOfAuthor = Arrays.copyOf(nextPostOfAuthor, capacity);
+            edgeStarts = Arrays.copyOf(edgeStarts, capacity);
+            edgeCounts = Arrays.copyOf(edgeCounts, capacity);
+        }
+        int post = postCount++;
+        postIndex.put(mid, post);
+        postMids[post] = mid;
+        postAuthors[post] = author;
+        nextPostOfAuthor[post] = lastPostOfNode[author];
+        lastPostOfNode[author] = post;
+        edgeCounts[post] = 0;
+        return post;
+    }
+
+    private void ensureEdgeCapacity(int count) {
+        if (edgeLength + count > edges.length) {
+            edges = Arrays.copyOf(edges, Math.max(edges.length << 1, edgeLength + count));
+        }
+    }
+
+    /**
+     * 按微博顺序重新排列, 去掉被替换的旧区间
+     */
+    private void compact() {
+        int[] compacted = new int[Math.max(INITIAL_CAPACITY, (edgeLength - deadEdges) * 2)];
+        int length = 0;
+        for (int post = 0; post < postCount; post++) {
+            System.arraycopy(edges, edgeStarts[post], compacted, length, edgeCounts[post]);
+            edgeStarts[post] = length;
+            length += edgeCounts[post];
+        }
+        log.info("compact relay graph, edges: {} deadEdges: {}", length, deadEdges);
+        edges = compacted;
+        edgeLength = length;
+        deadEdges = 0;
+    }
+
+    /**
+     * 从最新的微博往前保留, 直到边数或微博数达到上限的一半, 用保留的微博重建整个图
+     */
+    private void evictOldest() {
+        long keptEdges = 0;
+        int firstKept = postCount;
+        while (firstKept > 0) {
+            int post = firstKept - 1;
+            if (keptEdges + edgeCounts[post] > maxEdges / 2 || postCount - post > maxPosts / 2) {
+                break;
+            }
+            keptEdges += edgeCounts[post];
+            firstKept = post;
+        }
+        // 最新的一条微博总是保留
+        if (firstKept == postCount && postCount > 0) {
+            firstKept = postCount - 1;
+            keptEdges = edgeCounts[firstKept];
+        }
+        int oldPostCount = postCount;
+        long[] oldNodeUids = nodeUids;
+        int[] oldNameStarts = nameStarts;
+        int[] oldNameEnds = nameEnds;
+        char[] oldNameChars = nameChars;
+        long[] oldPostMids = postMids;
+        int[] oldPostAuthors = postAuthors;
+        int[] oldEdgeStarts = edgeStarts;
+        int[] oldEdgeCounts = edgeCounts;
+        int[] oldEdges = edges;
+
+        int capacity = Math.max(INITIAL_CAPACITY, oldPostCount - firstKept);
+        nodeIndex = new LongIntMap(capacity);
+        nodeUids = new long[capacity];
+        nameStarts = new int[capacity];
+        nameEnds = new int[capacity];
+        lastPostOfNode = new int[capacity];
+        nodeCount = 0;
+        nameChars = new char[INITIAL_CAPACITY * 8];
+        nameLength = 0;
+        postIndex = new LongIntMap(capacity);
+        postMids = new long[capacity];
+        postAuthors = new int[capacity];
+        nextPostOfAuthor = new int[capacity];
+        edgeStarts = new int[capacity];
+        edgeCounts = new int[capacity];
+        postCount = 0;
+        edges = new int[(int) Math.max(INITIAL_CAPACITY, keptEdges * 2)];
+        edgeLength = 0;
+        deadEdges = 0;
+
+        for (int oldPost = firstKept; oldPost < oldPostCount; oldPost++) {
+            int oldAuthor = oldPostAuthors[oldPost];
+            int author = node(oldNodeUids[oldAuthor],
+                    new String(oldNameChars, oldNameStarts[oldAuthor], oldNameEnds[oldAuthor] - oldNameStarts[oldAuthor]));
+            int count = oldEdgeCounts[oldPost];
+            int[] relayerNodes = new int[count];
+            for (int i = 0; i < count; i++) {
+                int oldNode = oldEdges[oldEdgeStarts[oldPost] + i];
+                relayerNodes[i] = node(oldNodeUids[oldNode],
+                        new String(oldNameChars, oldNameStarts[oldNode], oldNameEnds[oldNode] - oldNameStarts[oldNode]));
+            }
+            Arrays.sort(relayerNodes);
+            int post = newPost(oldPostMids[oldPost], author);
+            ensureEdgeCapacity(count);
+            System.arraycopy(relayerNodes, 0, edges, edgeLength, count);
+            edgeStarts[post] = edgeLength;
+            edgeCounts[post] = count;
+            edgeLength += count;
+        }
+        evictedPosts += firstKept;
+        log.info("evict relay graph, evictedPosts: {} posts: {} users: {} edges: {}", firstKept, postCount, nodeCount, edgeLength);
+    }
+
+    private static int unique(int[] sorted, int length) {
+        if (length == 0) {
+            return 0;
+        }
+        int size = 1;
+        for (int i = 1; i < length; i++) {
+            if (sorted[i] != sorted[size - 1]) {
+                sorted[size++] = sorted[i];
+            }
+        }
+        return size;
+    }
+
+    /**
+     * 非数字返回-1
+     */
+    private static long parseId(String id) {
+        if (StringUtils.isEmpty(id)) {
+            return -1;
+        }
+        try {
+            long value = Long.parseLong(id.trim());
+            return value < 0 ? -1 : value;
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+}
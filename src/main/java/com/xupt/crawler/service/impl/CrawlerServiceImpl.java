@@ -1,33 +1,127 @@
 package com.xupt.crawler.service.impl;
 
 import com.xupt.crawler.service.CrawlerService;
+import com.xupt.crawler.service.model.HtmlResponse;
+import com.xupt.crawler.service.parser.BodyExtractor;
 import com.xupt.crawler.utils.OkHttpClients;
+import com.xupt.crawler.utils.concurrent.SingleFlight;
+import com.xupt.crawler.utils.http.HostBulkhead;
+import com.xupt.crawler.utils.http.HttpStatusException;
+import com.xupt.crawler.utils.http.RetryingCall;
+import lombok.Value;
 import lombok.extern.slf4j.Slf4j;
 import okhttp3.*;
+import org.springframework.context.annotation.DependsOn;
 import org.springframework.http.HttpHeaders;
 import org.springframework.stereotype.Service;
 import org.springframework.util.StringUtils;
 
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.regex.Pattern;
+
 @Slf4j
 @Service
+@DependsOn("httpClientConfig")
 public class CrawlerServiceImpl implements CrawlerService {
 
+    /**
+     * 访客cookie只包含SUB和SUBP, 同一个url用任意访客cookie拿到的内容相同, 可以合并
+     */
+    private static final Pattern VISITOR_COOKIE = Pattern.compile("^SUB=[^;]*; SUBP=[^;]*$");
+
+    private final SingleFlight<RequestKey, String> inFlightRequests = new SingleFlight<>();
+
     @Override
     public String getHtml(String url, String cookie, boolean getOrPost) {
-        OkHttpClient okHttpClient = OkHttpClients.getInstance();
-        Request request = getRequest(url, cookie, getOrPost);
-        try (Response response = okHttpClient.newCall(request).execute()) {
-            if (response.isSuccessful()) {
-                return response.body().string();
-            } else {
-                throw new RuntimeException(String.format("http response is not ok, url: %s code: %s response: %s",
-                        url, response.code(), response.body().string()));
+        return join(getHtmlAsync(url, cookie, getOrPost));
+    }
+
+    @Override
+    public HtmlResponse getHtmlWithCookies(String url, String cookie, boolean getOrPost) {
+        return join(enqueue(url, cookie, getOrPost,
+                response -> new HtmlResponse(response.body().string(), Cookie.parseAll(response.request().url(), response.headers()))));
+    }
+
+    /**
+     * 相同url和cookie类别的并发GET请求共享同一个底层请求.
+     * passport的每次请求都用于生成新的访客身份, 不合并;
+     * 转发列表请求的结果用于记录所用访客cookie的健康度, 合并后实际发出的可能是别的cookie, 也不合并
+     */
+    @Override
+    public CompletableFuture<String> getHtmlAsync(String url, String cookie, boolean getOrPost) {
+        HostBulkhead bulkhead = HostBulkhead.of(HttpUrl.parse(url));
+        if (!getOrPost || bulkhead == HostBulkhead.PASSPORT || bulkhead == HostBulkhead.RELAY) {
+            return doGetHtmlAsync(url, cookie, false);
+        }
+        return inFlightRequests.execute(new RequestKey(url, cookieClass(cookie)), () -> doGetHtmlAsync(url, cookie, true));
+    }
+
+    @Override
+    public <T> CompletableFuture<T> fetchAsync(String url, String cookie, BodyExtractor<T> extractor) {
+        return enqueue(url, cookie, true, response -> extractor.extract(response.body().charStream()));
+    }
+
+    @Override
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("executed", inFlightRequests.getExecutedCount());
+        stats.put("coalesced", inFlightRequests.getSharedCount());
+        stats.put("inFlight", inFlightRequests.getInFlightCount());
+        return stats;
+    }
+
+    private CompletableFuture<String> doGetHtmlAsync(String url, String cookie, boolean getOrPost) {
+        return enqueue(url, cookie, getOrPost, response -> response.body().string());
+    }
+
+    private static <T> T join(CompletableFuture<T> future) {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
             }
-        } catch (Exception e) {
-            throw new RuntimeException(String.format("http request failed. request: %s exception: %s", url, e));
+            throw e;
         }
     }
 
+    private <T> CompletableFuture<T> enqueue(String url, String cookie, boolean getOrPost, ResponseHandler<T> responseHandler) {
+        Request request = getRequest(url, cookie, getOrPost);
+        CompletableFuture<T> future = new CompletableFuture<>();
+        RetryingCall call = OkHttpClients.newCall(request);
+        call.enqueue(new Callback() {
+            @Override
+            public void onFailure(Call call, IOException e) {
+                // 保留原始异常, 调用方需要区分熔断、限流和网络错误
+                future.completeExceptionally(new RuntimeException(String.format("http request failed. request: %s exception: %s", url, e), e));
+            }
+
+            @Override
+            public void onResponse(Call call, Response response) {
+                try (Response r = response) {
+                    if (r.isSuccessful()) {
+                        future.complete(responseHandler.handle(r));
+                    } else {
+                        future.completeExceptionally(new HttpStatusException(url, r.code(), r.body().string()));
+                    }
+                } catch (Exception e) {
+                    future.completeExceptionally(new RuntimeException(String.format("http request failed. request: %s exception: %s", url, e), e));
+                }
+            }
+        });
+        // 调用方取消时同时取消底层请求和等待中的重试, 释放连接
+        future.whenComplete((result, e) -> {
+            if (future.isCancelled()) {
+                call.cancel();
+            }
+        });
+        return future;
+    }
+
     private Request getRequest(String url, String cookie, boolean getOrPost) {
         Request.Builder builder = new Request.Builder()
                 .url(url)
@@ -45,4 +139,29 @@ public class CrawlerServiceImpl implements CrawlerService {
         }
         return builder.build();
     }
+
+    private String cookieClass(String cookie) {
+        if (StringUtils.isEmpty(cookie)) {
+            return "anonymous";
+        }
+        if (VISITOR_COOKIE.matcher(cookie).matches()) {
+            return "visitor";
+        }
+        // 登录用户的cookie内容可能与身份有关, 不同cookie之间不合并
+        return cookie;
+    }
+
+    @FunctionalInterface
+    private interface ResponseHandler<T> {
+
+        T handle(Response response) throws IOException;
+    }
+
+    @Value
+    private static class RequestKey {
+
+        private String url;
+
+        private String cookieClass;
+    }
 }
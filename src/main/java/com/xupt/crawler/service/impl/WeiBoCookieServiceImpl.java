@@ -1,43 +1,262 @@
 package com.xupt.crawler.service.impl;
 
+import com.alibaba.fastjson.JSON;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.xupt.crawler.service.CrawlerService;
 import com.xupt.crawler.service.WeiBoCookieService;
+import com.xupt.crawler.service.cookie.CookiePool;
+import com.xupt.crawler.service.cookie.VisitorCookie;
+import com.xupt.crawler.service.model.HtmlResponse;
+import com.xupt.crawler.utils.http.RetryPolicy;
 import lombok.extern.slf4j.Slf4j;
 import net.sf.json.JSONObject;
+import okhttp3.Cookie;
 import org.apache.logging.log4j.util.Strings;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
 @Slf4j
 @Service
 public class WeiBoCookieServiceImpl implements WeiBoCookieService {
 
+    private static final double FAILURE_WEIGHT = 1;
+
+    /**
+     * 被重定向到登录页基本说明cookie已经失效
+     */
+    private static final double LOGIN_WALL_WEIGHT = 3;
+
+    private static final Set<String> VISITOR_COOKIE_NAMES = new HashSet<>(Arrays.asList("SUB", "SUBP"));
+
     @Autowired
     private CrawlerService crawlerService;
 
+    @Value("${crawler.cookiePool.size:4}")
+    private int poolSize;
+
+    @Value("${crawler.cookiePool.maxAge.minutes:120}")
+    private long maxAgeMinutes;
+
+    @Value("${crawler.cookiePool.refreshAhead.minutes:10}")
+    private long refreshAheadMinutes;
+
+    @Value("${crawler.cookiePool.refreshInterval.seconds:30}")
+    private long refreshIntervalSeconds;
+
+    @Value("${crawler.cookiePool.evictScore:3}")
+    private double evictScore;
+
+    @Value("${crawler.cookiePool.maxRequests:0}")
+    private long maxRequests;
+
+    @Value("${crawler.cookiePool.mint.maxAttempts:5}")
+    private int mintMaxAttempts;
+
+    @Value("${crawler.cookiePool.mint.baseDelay.milliseconds:1000}")
+    private long mintBaseDelayMillis;
+
+    @Value("${crawler.cookiePool.mint.maxDelay.milliseconds:30000}")
+    private long mintMaxDelayMillis;
+
+    @Value("${crawler.cookiePool.snapshot.path:data/cookies.json}")
+    private String snapshotPath;
+
+    private RetryPolicy mintRetryPolicy;
+
+    private CookiePool cookiePool;
+
+    private ScheduledExecutorService cookieRefresher;
+
+    /**
+     * 生成cookie会阻塞等待passport, 与刷新线程分开, 刷新时等待生成完成不会死锁
+     */
+    private ExecutorService cookieMinter;
+
+    @PostConstruct
+    public void init() {
+        mintRetryPolicy = new RetryPolicy(mintMaxAttempts - 1, mintBaseDelayMillis, mintMaxDelayMillis, 2.0);
+        cookieRefresher = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder()
+                .setNameFormat("cookie-refresher-%d")
+                .setDaemon(true)
+                .build());
+        cookieMinter = Executors.newSingleThreadExecutor(new ThreadFactoryBuilder()
+                .setNameFormat("cookie-minter-%d")
+                .setDaemon(true)
+                .build());
+        cookiePool = new CookiePool(poolSize, TimeUnit.MINUTES.toMillis(maxAgeMinutes),
+                TimeUnit.MINUTES.toMillis(refreshAheadMinutes), evictScore, maxRequests, this::mintCookie, cookieRefresher, cookieMinter);
+        cookiePool.restore(loadSnapshot());
+        cookiePool.setChangeListener(this::saveSnapshot);
+        cookiePool.start(TimeUnit.SECONDS.toMillis(refreshIntervalSeconds));
+        log.info("init cookie pool, size: {}, maxAge: {}min, refreshAhead: {}min", poolSize, maxAgeMinutes, refreshAheadMinutes);
+    }
+
+    @PreDestroy
+    public void destroy() {
+        cookieRefresher.shutdownNow();
+        cookieMinter.shutdownNow();
+        saveSnapshot(cookiePool.getCookies());
+    }
+
     @Override
     public String getCookie() {
+        return cookiePool.borrow();
+    }
+
+    @Override
+    public CompletableFuture<String> getCookieAsync() {
+        return cookiePool.borrowAsync();
+    }
+
+    @Override
+    public void reportSuccess(String cookie) {
+        cookiePool.reportSuccess(cookie);
+    }
+
+    @Override
+    public void reportFailure(String cookie, boolean loginWall) {
+        cookiePool.reportFailure(cookie, loginWall ? LOGIN_WALL_WEIGHT : FAILURE_WEIGHT);
+    }
+
+    @Override
+    public Map<String, Object> getStats() {
+        long now = System.currentTimeMillis();
+        List<Map<String, Object>> cookies = new ArrayList<>();
+        for (VisitorCookie cookie : cookiePool.getCookies()) {
+            Map<String, Object> cookieStats = new LinkedHashMap<>();
+            cookieStats.put("requestCount", cookie.getRequestCount());
+            cookieStats.put("failureCount", cookie.getFailureCount());
+            cookieStats.put("failureScore", cookie.getFailureScore());
+            cookieStats.put("ageSeconds", TimeUnit.MILLISECONDS.toSeconds(now - cookie.getMintedAt()));
+            cookies.add(cookieStats);
+        }
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("size", cookies.size());
+        stats.put("cookies", cookies);
+        return stats;
+    }
+
+    /**
+     * 最多尝试 mintMaxAttempts 次, 每次失败后指数退避, 全部失败时抛出异常
+     */
+    @Override
+    public VisitorCookie mintCookie() {
+        for (int attempt = 1; ; attempt++) {
+            try {
+                VisitorCookie cookie = tryMintCookie();
+                if (cookie != null) {
+                    return cookie;
+                }
+                log.warn("mint cookie failed, passport returned no sub. attempt: {}", attempt);
+            } catch (Exception e) {
+                log.warn("mint cookie failed. attempt: {} error: {}", attempt, e.getMessage());
+            }
+            if (attempt >= mintMaxAttempts) {
+                throw new RuntimeException(String.format("mint cookie failed after %s attempts", attempt));
+            }
+            try {
+                Thread.sleep(mintRetryPolicy.backoffMillis(attempt));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException("mint cookie interrupted", e);
+            }
+        }
+    }
+
+    private VisitorCookie tryMintCookie() {
         String[] tidAndC = getTidAndC();
         String t = tidAndC[0];
         String w = tidAndC[1];
-        JSONObject obj;
-        for(;;) {
-            String url = "https://passport.weibo.com/visitor/visitor?a=incarnate&t=" + t + "&w=" + w + "&c=0" + "&gc=&cb=cross_domain&from=weibo&_rand=" + Math.random();
-            String body = crawlerService.getHtml(url, Strings.EMPTY, true);
-            body = body.replaceAll("window.cross_domain && cross_domain\\(", "");
-            body = body.replaceAll("\\);", "");
-            obj = JSONObject.fromObject(body).getJSONObject("data");
-            if (obj != null && obj.has("sub") && obj.has("subp")) {
-                break;
-            }
-            tidAndC = getTidAndC();
-            t = tidAndC[0];
-            w = tidAndC[1];
+        String url = "https://passport.weibo.com/visitor/visitor?a=incarnate&t=" + t + "&w=" + w + "&c=0" + "&gc=&cb=cross_domain&from=weibo&_rand=" + Math.random();
+        HtmlResponse response = crawlerService.getHtmlWithCookies(url, Strings.EMPTY, true);
+        String body = response.getBody();
+        body = body.replaceAll("window.cross_domain && cross_domain\\(", "");
+        body = body.replaceAll("\\);", "");
+        JSONObject obj = JSONObject.fromObject(body).getJSONObject("data");
+        if (obj == null || obj.isNullObject() || !obj.has("sub") || !obj.has("subp")) {
+            return null;
         }
 //        String cookie = "YF-Page-G0=" + getYF() + "; SUB=" + obj.getString("sub") + "; SUBP=" + obj.getString("subp");
         String cookie = "SUB=" + obj.getString("sub") + "; SUBP=" + obj.getString("subp");
-        log.info("cookie: {}", cookie);
-        return cookie;
+        long expiresAt = getExpiresAt(response.getCookies());
+        log.info("cookie: {} expiresAt: {}", cookie, expiresAt == Long.MAX_VALUE ? "unknown" : new Date(expiresAt));
+        return new VisitorCookie(cookie, System.currentTimeMillis(), expiresAt);
+    }
+
+    /**
+     * SUB和SUBP中较早的过期时间, passport没有设置或设置的是会话cookie时返回 Long.MAX_VALUE, 由cookie池按maxAge处理
+     */
+    private long getExpiresAt(List<Cookie> cookies) {
+        long expiresAt = Long.MAX_VALUE;
+        for (Cookie cookie : cookies) {
+            if (VISITOR_COOKIE_NAMES.contains(cookie.name()) && cookie.persistent()) {
+                expiresAt = Math.min(expiresAt, cookie.expiresAt());
+            }
+        }
+        return expiresAt;
+    }
+
+    /**
+     * 读取上次保存的cookie快照, 重启后不必先请求passport就能开始抓取
+     */
+    private List<VisitorCookie> loadSnapshot() {
+        Path path = Paths.get(snapshotPath);
+        if (!Files.exists(path)) {
+            return Collections.emptyList();
+        }
+        try {
+            String text = new String(Files.readAllBytes(path), StandardCharsets.UTF_8);
+            List<VisitorCookie> cookies = JSON.parseArray(text, VisitorCookie.class);
+            log.info("load cookie snapshot, path: {} size: {}", path, cookies == null ? 0 : cookies.size());
+            return cookies == null ? Collections.emptyList() : cookies;
+        } catch (Exception e) {
+            log.error("load cookie snapshot exception. path: {} error is ", path, e);
+            return Collections.emptyList();
+        }
+    }
+
+    /**
+     * 只保存未过期的cookie, 先写临时文件再替换, 避免进程中断时留下不完整的快照
+     */
+    private synchronized void saveSnapshot(List<VisitorCookie> cookies) {
+        long now = System.currentTimeMillis();
+        List<VisitorCookie> valid = cookies.stream()
+                .filter(cookie -> !cookie.isExpired(now))
+                .collect(Collectors.toList());
+        Path path = Paths.get(snapshotPath).toAbsolutePath();
+        try {
+            Files.createDirectories(path.getParent());
+            Path tmp = path.resolveSibling(path.getFileName() + ".tmp");
+            Files.write(tmp, JSON.toJSONString(valid).getBytes(StandardCharsets.UTF_8));
+            Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            log.error("save cookie snapshot exception. path: {} error is ", path, e);
+        }
     }
 
     private String[] getTidAndC() {
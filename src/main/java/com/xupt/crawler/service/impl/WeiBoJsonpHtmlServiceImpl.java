@@ -5,7 +5,21 @@ import com.xupt.crawler.controller.resp.WeiboDomain;
 import com.xupt.crawler.service.CrawlerService;
 import com.xupt.crawler.service.WeiBoCookieService;
 import com.xupt.crawler.service.WeiBoJsonpHtmlService;
-import lombok.AllArgsConstructor;
+import com.xupt.crawler.service.WeiBoUserProfileService;
+import com.xupt.crawler.service.graph.RelayGraphStore;
+import com.xupt.crawler.service.model.Expansion;
+import com.xupt.crawler.service.model.RelayPage;
+import com.xupt.crawler.service.model.RelayUser;
+import com.xupt.crawler.service.model.SearchCard;
+import com.xupt.crawler.service.model.SearchPage;
+import com.xupt.crawler.service.model.UserProfile;
+import com.xupt.crawler.service.parser.SearchPageScanner;
+import com.xupt.crawler.service.relay.RelayCrawler;
+import com.xupt.crawler.service.relay.RelayPageStore;
+import com.xupt.crawler.utils.concurrent.FanOutScope;
+import com.xupt.crawler.utils.concurrent.Futures;
+import com.xupt.crawler.utils.http.HttpStatusException;
+import com.xupt.crawler.utils.http.UpstreamStatus;
 import lombok.Data;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.logging.log4j.util.Strings;
@@ -14,14 +28,18 @@ import org.jsoup.nodes.Document;
 import org.jsoup.nodes.Element;
 import org.jsoup.select.Elements;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
-import org.springframework.util.StringUtils;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.concurrent.Executor;
-import java.util.concurrent.ExecutorCompletionService;
-import java.util.concurrent.Executors;
+import java.util.function.Consumer;
 import java.util.stream.Collectors;
 
 @Slf4j
@@ -34,115 +52,170 @@ public class WeiBoJsonpHtmlServiceImpl implements WeiBoJsonpHtmlService {
     @Autowired
     private CrawlerService crawlerService;
 
-    private final Executor parseExecutor = Executors.newWorkStealingPool(8);
+    @Autowired
+    private WeiBoUserProfileService weiBoUserProfileService;
+
+    @Autowired
+    private RelayCrawler relayCrawler;
 
-    private final ExecutorCompletionService<WeiboDomain> parseCompleteService = new ExecutorCompletionService<>(parseExecutor);
+    @Autowired
+    private RelayGraphStore relayGraphStore;
+
+    /**
+     * 只负责解析等CPU工作, 网络请求通过 {@link CrawlerService#getHtmlAsync} 异步完成, 不占用该线程池
+     */
+    @Autowired
+    @Qualifier("crawlerScheduler")
+    private Executor scheduler;
 
-    private final Executor relayExecutor = Executors.newWorkStealingPool(4);
+    /**
+     * 每页同时处理的微博数
+     */
+    @Value("${crawler.fanOut.cards:10}")
+    private int cardParallelism;
 
-    private final ExecutorCompletionService<List<RelayParseData>> relayCompleteService = new ExecutorCompletionService<>(relayExecutor);
+    /**
+     * 搜索结果页的解析方式: jsoup(构建完整DOM), scan(只扫描结果区域), compare(两种都执行, 结果不一致时打印日志, 返回jsoup结果)
+     */
+    @Value("${crawler.parser.searchPage:jsoup}")
+    private String searchPageParser;
 
     @Override
-    public int parsePageCount(String html) {
-        Document doc = Jsoup.parse(html);
-        Element page = doc.getElementsByClass("m-page").first();
-        Element curs = page.getElementsByClass("s-scroll").first();
-        String pageCountStr = curs.child(curs.childrenSize() - 1).child(0).text();
-        return Integer.parseInt(pageCountStr.substring(1, pageCountStr.indexOf("页")));
+    public SearchPage parsePage(String html) {
+        if ("scan".equalsIgnoreCase(searchPageParser)) {
+            return SearchPageScanner.scan(html);
+        }
+        if ("compare".equalsIgnoreCase(searchPageParser)) {
+            return parsePageAndCompare(html);
+        }
+        return parsePageWithJsoup(html);
     }
 
-    @Override
-    public int parsePageSize(String html) {
-        Document doc = Jsoup.parse(html);
-        Elements cardWraps = doc.getElementsByClass("card-wrap");
-        int pageSize = 0;
-        for (Element element : cardWraps) {
-            if (element.getElementsByClass("name").isEmpty()) {
-                continue;
+    private SearchPage parsePageAndCompare(String html) {
+        long start = System.nanoTime();
+        SearchPage jsoupPage = parsePageWithJsoup(html);
+        long jsoupNanos = System.nanoTime() - start;
+        start = System.nanoTime();
+        SearchPage scanPage;
+        try {
+            scanPage = SearchPageScanner.scan(html);
+        } catch (Exception e) {
+            log.error("scan search page exception. error is ", e);
+            return jsoupPage;
+        }
+        long scanNanos = System.nanoTime() - start;
+        if (jsoupPage.equals(scanPage)) {
+            log.debug("search page parsers agree, cards: {}, jsoup: {}us, scan: {}us",
+                    jsoupPage.getCards().size(), jsoupNanos / 1000, scanNanos / 1000);
+            return jsoupPage;
+        }
+        if (jsoupPage.getPageCount() != scanPage.getPageCount() || jsoupPage.getCardCount() != scanPage.getCardCount()
+                || jsoupPage.getCards().size() != scanPage.getCards().size()) {
+            log.warn("search page parsers differ, jsoup pageCount: {} cardCount: {} cards: {}, scan pageCount: {} cardCount: {} cards: {}",
+                    jsoupPage.getPageCount(), jsoupPage.getCardCount(), jsoupPage.getCards().size(),
+                    scanPage.getPageCount(), scanPage.getCardCount(), scanPage.getCards().size());
+        }
+        int size = Math.min(jsoupPage.getCards().size(), scanPage.getCards().size());
+        for (int i = 0; i < size; i++) {
+            if (!jsoupPage.getCards().get(i).equals(scanPage.getCards().get(i))) {
+                log.warn("search page parsers differ at card {}, jsoup: {}, scan: {}",
+                        i, jsoupPage.getCards().get(i), scanPage.getCards().get(i));
+                break;
             }
-            pageSize++;
         }
-        return pageSize;
+        return jsoupPage;
     }
 
-    @Override
-    public List<WeiboDomain> parseData(String html, String realCookie) {
-        List<WeiboDomain> weiboDomains = new ArrayList<>();
+    private SearchPage parsePageWithJsoup(String html) {
         Document doc = Jsoup.parse(html);
+        int pageCount = parsePageCount(doc);
         Elements cardWraps = doc.getElementsByClass("card-wrap");
+        int cardCount = 0;
+        List<SearchCard> cards = new ArrayList<>(cardWraps.size());
         for (Element element : cardWraps) {
-            parseCompleteService.submit(() -> parseSingleData(element, realCookie));
-//            WeiboDomain weiboDomain = parseSingleData(element, realCookie);
-//            if (weiboDomain != null) {
-//                weiboDomains.add(weiboDomain);
-//            }
-        }
-        for (int i = 0; i < cardWraps.size(); i++) {
+            if (element.getElementsByClass("name").isEmpty()) {
+                continue;
+            }
+            cardCount++;
             try {
-                WeiboDomain weiboDomain = parseCompleteService.take().get();
-                if (weiboDomain != null) {
-                    weiboDomains.add(weiboDomain);
+                SearchCard card = parseCard(element);
+                if (card != null) {
+                    cards.add(card);
                 }
             } catch (Exception e) {
-                log.error("get single data exception. error is ", e);
+                log.error("parse card exception. error is ", e);
             }
         }
-        return weiboDomains;
+        return new SearchPage(pageCount, cardCount, cards);
     }
 
-    private WeiboDomain parseSingleData(Element element, String realCookie) {
-        if (element.getElementsByClass("name").isEmpty()) {
-            return null;
+    @Override
+    public List<WeiboDomain> parseData(SearchPage page, String realCookie, Set<Expansion> expansions) {
+        return parseDataAsync(page, realCookie, expansions).join();
+    }
+
+    @Override
+    public CompletableFuture<List<WeiboDomain>> parseDataAsync(SearchPage page, String realCookie, Set<Expansion> expansions) {
+        return parseDataAsync(page, realCookie, expansions, weiboDomain -> {
+        });
+    }
+
+    @Override
+    public CompletableFuture<List<WeiboDomain>> parseDataAsync(SearchPage page, String realCookie, Set<Expansion> expansions,
+                                                               Consumer<WeiboDomain> onItem) {
+        return parseDataAsync(page, realCookie, expansions, onItem, RelayPageStore.NONE);
+    }
+
+    @Override
+    public CompletableFuture<List<WeiboDomain>> parseDataAsync(SearchPage page, String realCookie, Set<Expansion> expansions,
+                                                               Consumer<WeiboDomain> onItem, RelayPageStore relayPages) {
+        FanOutScope<WeiboDomain> scope = new FanOutScope<>(scheduler, cardParallelism);
+        for (SearchCard card : page.getCards()) {
+            scope.fork(() -> {
+                CompletableFuture<WeiboDomain> single = parseSingleData(card, realCookie, expansions, relayPages);
+                return Futures.cancelling(single.thenApply(weiboDomain -> {
+                    if (weiboDomain != null) {
+                        onItem.accept(weiboDomain);
+                    }
+                    return weiboDomain;
+                }), single);
+            }, e -> {
+                log.error("get single data exception. error is ", e);
+                return null;
+            });
+        }
+        // 取消返回的future时取消scope, 进而取消所有微博的主页和转发请求
+        CompletableFuture<List<WeiboDomain>> joined = scope.join();
+        return Futures.cancelling(joined.thenApply(weiboDomains -> weiboDomains.stream()
+                .filter(Objects::nonNull)
+                .collect(Collectors.toList())), joined);
+    }
+
+    /**
+     * 只有一页结果时没有分页栏
+     */
+    private int parsePageCount(Document doc) {
+        Element page = doc.getElementsByClass("m-page").first();
+        if (page == null) {
+            return 1;
+        }
+        Element curs = page.getElementsByClass("s-scroll").first();
+        if (curs == null || curs.childrenSize() == 0) {
+            return 1;
         }
+        String pageCountStr = curs.child(curs.childrenSize() - 1).child(0).text();
+        return Integer.parseInt(pageCountStr.substring(1, pageCountStr.indexOf("页")));
+    }
+
+    private SearchCard parseCard(Element element) {
         Element user = element.getElementsByClass("name").first();
-        String name = element.getElementsByClass("name").first().attr("nick-name");
+        String name = user.attr("nick-name");
         if (Strings.isEmpty(name)) {
             return null;
         }
         String uid = user.attr("href").replace("//", "").split("/")[1];
         uid = uid.substring(0, uid.indexOf("?"));
 
-        String homepageLink = "https://weibo.com/u/" + uid;
-        String homepageJsonStr;
-        try {
-            homepageJsonStr = crawlerService.getHtml(homepageLink, realCookie, true);
-        } catch (Exception e1) {
-            try {
-                homepageJsonStr = crawlerService.getHtml(homepageLink, realCookie, false);
-            } catch (Exception e2) {
-                homepageJsonStr = Strings.EMPTY;
-            }
-        }
-        String fans = Strings.EMPTY;
-        if (homepageJsonStr.contains("粉丝")) {
-            int index = homepageJsonStr.indexOf("粉丝");
-            fans = homepageJsonStr.substring(index - 53, index - 33);
-            for (int i = fans.length() - 1; i >= 0; i--) {
-                String numStr = fans.charAt(i) + "";
-                try {
-                    Integer.parseInt(numStr);
-                } catch (Exception e) {
-                    fans = fans.substring(i + 1);
-                    break;
-                }
-            }
-        }
-        String address = Strings.EMPTY;
-        while (homepageJsonStr.contains("<span class=\\\"item_text W_fl\\\">")) {
-            int index = homepageJsonStr.indexOf("<span class=\\\"item_text W_fl\\\">");
-            String s = homepageJsonStr.substring(index + 31, index + 201)
-                    .replaceAll("\\\\r", "").replaceAll("\\\\n", "").replaceAll("\\\\t", "").replaceAll(" ", "");
-            s = s.substring(0, !s.contains("<\\/span>") ? s.length() : s.indexOf("<\\/span>"));
-            if (!s.contains("<") && !s.contains(">") && !StringUtils.isEmpty(s)) {
-                address = s;
-                break;
-            }
-            homepageJsonStr = homepageJsonStr.substring(index + 31);
-        }
-        if (address.length() > 10) {
-            address = Strings.EMPTY;
-        }
-
         String txt = getLabelHtml(element, "txt");
         String img = Strings.EMPTY;
         if (element.getElementsByClass("m1 w1 c1").size() > 0) {
@@ -162,58 +235,59 @@ public class WeiBoJsonpHtmlServiceImpl implements WeiBoJsonpHtmlService {
             likes = cardAct_url_lis.get(3).child(0).text();
         }
 
-        //获取转发相关信息
-        String cookie = weiBoCookieService.getCookie();
-        List<String> allRelayUidList = new ArrayList<>();
-        List<String> allRelayNames = new ArrayList<>();
-        String relayKey = element.attr("mid");
-        String relayLink = "https://weibo.com/aj/v6/mblog/info/big?ajwvr=6&id=" + relayKey + "&page=1";
-        String relayJsonStr;
-        try {
-            relayJsonStr = crawlerService.getHtml(relayLink, cookie, true);
-        } catch (Exception e) {
-//            cookie = "_s_tentry=link.csdn.net; Apache=7478629912745.258.1627205657412; SINAGLOBAL=7478629912745.258.1627205657412; ULV=1627205657422:1:1:1:7478629912745.258.1627205657412:; login_sid_t=66f5d667c5fc5cd5d8fcfaf87e7ba3d6; cross_origin_proto=SSL; SUB=_2A25MC9TiDeRhGeBK41AU9i7EwjyIHXVvYUEqrDV8PUNbmtAKLVLbkW9NR2ITSFnAJF4pS2SJDDjX-HCYeChZRdXZ; SUBP=0033WrSXqPxfM725Ws9jqgMF55529P9D9WWJKsUxaFmh3odVv9DisjkQ5JpX5KzhUgL.FoqX1hzfSo5R1K52dJLoI7DsIPiLeK.Reh5N; ALF=1659951153; SSOLoginState=1628415154; wvr=6; UOR=link.csdn.net,s.weibo.com,www.baidu.com; webim_unReadCount=%7B%22time%22%3A1628418522452%2C%22dm_pub_total%22%3A0%2C%22chat_group_client%22%3A0%2C%22chat_group_notice%22%3A0%2C%22allcountNum%22%3A1%2C%22msgbox%22%3A0%7D";
-            cookie = weiBoCookieService.getCookie();
-            relayJsonStr = crawlerService.getHtml(relayLink, cookie, true);
-        }
-        RelayEntity relayEntity = JSONObject.parseObject(relayJsonStr, RelayEntity.class);
-        //第一页
-        List<RelayParseData> relay = parseRelay(relayEntity.getData().getHtml());
-        allRelayUidList.addAll(relay.stream().map(RelayParseData::getUid).collect(Collectors.toList()));
-        allRelayNames.addAll(relay.stream().map(RelayParseData::getName).collect(Collectors.toList()));
-        //其他页
-        int totalPage = relayEntity.getData().getPage().getTotalpage();
-        for (int i = 2; i <= totalPage; i++) {
-            String pageRelayLink = "https://weibo.com/aj/v6/mblog/info/big?ajwvr=6&id=" + relayKey + "&page=" + i;
-            String finalCookie = cookie;
-            relayCompleteService.submit(() -> getRelay(pageRelayLink, finalCookie));
-//            relayNames = getRelay(pageRelayLink, cookie);
-//            allRelayNames.addAll(relayNames);
-        }
-        for (int i = 2; i <= totalPage; i++) {
-            try {
-                relay = relayCompleteService.take().get();
-                allRelayUidList.addAll(relay.stream().map(RelayParseData::getUid).collect(Collectors.toList()));
-                allRelayNames.addAll(relay.stream().map(RelayParseData::getName).collect(Collectors.toList()));
-            } catch (Exception e) {
-                log.error("get relay exception. error is ", e);
-            }
-        }
+        SearchCard card = new SearchCard();
+        card.setMid(element.attr("mid"));
+        card.setUid(uid);
+        card.setName(name);
+        card.setTxt(txt);
+        card.setImg(img);
+        card.setDate(date);
+        card.setRelayNum(relayNum);
+        card.setComment(comment);
+        card.setLikes(likes);
+        return card;
+    }
 
+    private CompletableFuture<WeiboDomain> parseSingleData(SearchCard card, String realCookie, Set<Expansion> expansions, RelayPageStore relayPages) {
+        String uid = card.getUid();
         WeiboDomain weiboDomain = new WeiboDomain();
         weiboDomain.setUid(uid);
-        weiboDomain.setName(name);
-        weiboDomain.setFans(fans);
-        weiboDomain.setAddress(address);
-        weiboDomain.setTxt(txt);
-        weiboDomain.setImg(img);
-        weiboDomain.setDate(date);
-        weiboDomain.setRelayNum(relayNum);
-        weiboDomain.setComment(comment);
-        weiboDomain.setLikes(likes);
-        weiboDomain.setRelayUidList(JSONObject.toJSONString(allRelayUidList));
-        weiboDomain.setRelayNames(JSONObject.toJSONString(allRelayNames));
-        return weiboDomain;
+        weiboDomain.setName(card.getName());
+        weiboDomain.setTxt(card.getTxt());
+        weiboDomain.setImg(card.getImg());
+        weiboDomain.setDate(card.getDate());
+        weiboDomain.setRelayNum(card.getRelayNum());
+        weiboDomain.setComment(card.getComment());
+        weiboDomain.setLikes(card.getLikes());
+
+        //获取主页相关信息
+        CompletableFuture<Void> homepageFuture = CompletableFuture.completedFuture(null);
+        if (expansions.contains(Expansion.PROFILE)) {
+            CompletableFuture<UserProfile> profileFuture = weiBoUserProfileService.getProfile(uid, realCookie);
+            homepageFuture = Futures.cancelling(profileFuture.thenAccept(profile -> {
+                weiboDomain.setFans(profile.getFans());
+                weiboDomain.setAddress(profile.getAddress());
+            }), profileFuture);
+        }
+
+        //获取转发相关信息, 不需要时也不获取访客cookie; cookie池为空时等待生成, 不阻塞调度线程
+        CompletableFuture<Void> relayFuture = CompletableFuture.completedFuture(null);
+        if (expansions.contains(Expansion.RELAY) || expansions.contains(Expansion.GRAPH)) {
+            String relayKey = card.getMid();
+            boolean relayColumns = expansions.contains(Expansion.RELAY);
+            CompletableFuture<List<RelayUser>> relaysFuture = Futures.thenCompose(weiBoCookieService.getCookieAsync(),
+                    cookie -> getAllRelay(relayKey, cookie, relayPages));
+            relayFuture = Futures.cancelling(relaysFuture.thenAccept(relays -> {
+                        relayGraphStore.addPost(relayKey, uid, card.getName(), relays);
+                        // 只需要关系图时不生成转发用户列表的json
+                        if (relayColumns) {
+                            weiboDomain.setRelayUidList(JSONObject.toJSONString(relays.stream().map(RelayUser::getUid).collect(Collectors.toList())));
+                            weiboDomain.setRelayNames(JSONObject.toJSONString(relays.stream().map(RelayUser::getName).collect(Collectors.toList())));
+                        }
+                    }), relaysFuture);
+        }
+
+        return Futures.cancelling(homepageFuture.thenCombine(relayFuture, (v1, v2) -> weiboDomain), homepageFuture, relayFuture);
     }
 
     private String getLabelHtml(Element element, String className) {
@@ -224,21 +298,68 @@ public class WeiBoJsonpHtmlServiceImpl implements WeiBoJsonpHtmlService {
         return Strings.EMPTY;
     }
 
-    private List<RelayParseData> getRelay(String relayLink, String cookie) {
-        String relayJsonStr;
-        try {
-            relayJsonStr = crawlerService.getHtml(relayLink, cookie, true);
-        } catch (Exception e) {
-//            cookie = "_s_tentry=link.csdn.net; Apache=7478629912745.258.1627205657412; SINAGLOBAL=7478629912745.258.1627205657412; ULV=1627205657422:1:1:1:7478629912745.258.1627205657412:; login_sid_t=66f5d667c5fc5cd5d8fcfaf87e7ba3d6; cross_origin_proto=SSL; SUB=_2A25MC9TiDeRhGeBK41AU9i7EwjyIHXVvYUEqrDV8PUNbmtAKLVLbkW9NR2ITSFnAJF4pS2SJDDjX-HCYeChZRdXZ; SUBP=0033WrSXqPxfM725Ws9jqgMF55529P9D9WWJKsUxaFmh3odVv9DisjkQ5JpX5KzhUgL.FoqX1hzfSo5R1K52dJLoI7DsIPiLeK.Reh5N; ALF=1659951153; SSOLoginState=1628415154; wvr=6; UOR=link.csdn.net,s.weibo.com,www.baidu.com; webim_unReadCount=%7B%22time%22%3A1628418522452%2C%22dm_pub_total%22%3A0%2C%22chat_group_client%22%3A0%2C%22chat_group_notice%22%3A0%2C%22allcountNum%22%3A1%2C%22msgbox%22%3A0%7D";
-            cookie = weiBoCookieService.getCookie();
-            relayJsonStr = crawlerService.getHtml(relayLink, cookie, true);
+    /**
+     * 转发页的调度(并发、页数上限、提前停止)由 {@link RelayCrawler} 负责, 这里只负责请求和解析一页
+     */
+    private CompletableFuture<List<RelayUser>> getAllRelay(String relayKey, String cookie, RelayPageStore relayPages) {
+        return relayCrawler.crawl(relayKey, page -> {
+            RelayPage stored = relayPages.get(relayKey, page);
+            if (stored != null) {
+                return CompletableFuture.completedFuture(stored);
+            }
+            CompletableFuture<RelayEntity> relayEntityFuture = getRelay(getRelayLink(relayKey, page), cookie);
+            return Futures.cancelling(relayEntityFuture.thenApply(relayEntity -> {
+                RelayPage relayPage = new RelayPage(relayEntity.getData().getPage().getTotalpage(),
+                        parseRelay(relayEntity.getData().getHtml()));
+                relayPages.put(relayKey, page, relayPage);
+                return relayPage;
+            }), relayEntityFuture);
+        });
+    }
+
+    private String getRelayLink(String relayKey, int page) {
+        return "https://weibo.com/aj/v6/mblog/info/big?ajwvr=6&id=" + relayKey + "&page=" + page;
+    }
+
+    private CompletableFuture<RelayEntity> getRelay(String relayLink, String cookie) {
+        CompletableFuture<String> html = crawlerService.getHtmlAsync(relayLink, cookie, true);
+        return Futures.cancelling(html
+                .whenComplete((relayJsonStr, e) -> {
+                    if (e != null && isRejectedByUpstream(e)) {
+                        weiBoCookieService.reportFailure(cookie, false);
+                    }
+                })
+                .thenApplyAsync(relayJsonStr -> {
+                    // cookie失效时会被重定向到访客系统页面, 返回的不是json
+                    if (!relayJsonStr.trim().startsWith("{")) {
+                        weiBoCookieService.reportFailure(cookie, true);
+                        throw new RuntimeException(String.format("relay response is not json, cookie may be invalid. link: %s", relayLink));
+                    }
+                    RelayEntity relayEntity = JSONObject.parseObject(relayJsonStr, RelayEntity.class);
+                    if (relayEntity.getData() == null) {
+                        weiBoCookieService.reportFailure(cookie, false);
+                        throw new RuntimeException(String.format("relay response has no data. link: %s code: %s msg: %s",
+                                relayLink, relayEntity.getCode(), relayEntity.getMsg()));
+                    }
+                    weiBoCookieService.reportSuccess(cookie);
+                    return relayEntity;
+                }, scheduler), html);
+    }
+
+    /**
+     * 4xx说明请求本身(cookie)被拒绝, 限流和5xx是上游整体的问题, 与cookie无关
+     */
+    private boolean isRejectedByUpstream(Throwable e) {
+        Throwable cause = e instanceof CompletionException ? e.getCause() : e;
+        if (!(cause instanceof HttpStatusException)) {
+            return false;
         }
-        RelayEntity relayEntity = JSONObject.parseObject(relayJsonStr, RelayEntity.class);
-        return parseRelay(relayEntity.getData().getHtml());
+        int code = ((HttpStatusException) cause).getCode();
+        return code >= 400 && !UpstreamStatus.isOverloaded(code);
     }
 
-    private List<RelayParseData> parseRelay(String html) {
-        List<RelayParseData> relays = new ArrayList<>();
+    private List<RelayUser> parseRelay(String html) {
+        List<RelayUser> relays = new ArrayList<>();
 
         Document relayDoc = Jsoup.parse(html);
         Elements relayElements = relayDoc.getElementsByClass("list_li S_line1 clearfix");
@@ -246,8 +367,7 @@ public class WeiBoJsonpHtmlServiceImpl implements WeiBoJsonpHtmlService {
             Element relayUser = element.getElementsByClass("WB_face W_fl").first().child(0).child(0);
             String relayUid = relayUser.attr("usercard").replaceAll("id=", "");
             String relayName = relayUser.attr("alt");
-            RelayParseData relayParseData = new RelayParseData(relayUid, relayName);
-            relays.add(relayParseData);
+            relays.add(new RelayUser(relayUid, relayName));
         }
         return relays;
     }
@@ -279,13 +399,4 @@ public class WeiBoJsonpHtmlServiceImpl implements WeiBoJsonpHtmlService {
             }
         }
     }
-
-    @Data
-    @AllArgsConstructor
-    private static class RelayParseData {
-
-        private String uid;
-
-        private String name;
-    }
 }
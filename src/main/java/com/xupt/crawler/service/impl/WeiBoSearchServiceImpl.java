@@ -0,0 +1,117 @@
+package com.xupt.crawler.service.impl;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import com.xupt.crawler.service.CrawlerService;
+import com.xupt.crawler.service.WeiBoJsonpHtmlService;
+import com.xupt.crawler.service.WeiBoSearchService;
+import com.xupt.crawler.service.model.SearchMeta;
+import com.xupt.crawler.service.model.SearchPage;
+import com.xupt.crawler.service.model.SearchQuery;
+import com.xupt.crawler.utils.concurrent.Futures;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import java.time.format.DateTimeFormatter;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 搜索结果页的获取, 以及总页数、首末页卡片数的缓存.
+ * 元信息缓存命中时翻页只需要请求当前页, 不再请求第1页和最后一页
+ */
+@Slf4j
+@Service
+public class WeiBoSearchServiceImpl implements WeiBoSearchService {
+
+    private static final DateTimeFormatter TIME_SCOPE_FORMATTER = DateTimeFormatter.ofPattern("yyyy-MM-dd-HH");
+
+    @Autowired
+    private CrawlerService crawlerService;
+
+    @Autowired
+    private WeiBoJsonpHtmlService weiBoJsonpHtmlService;
+
+    @Autowired
+    @Qualifier("crawlerScheduler")
+    private Executor scheduler;
+
+    /**
+     * 搜索结果会不断更新, 过期时间不宜过长
+     */
+    @Value("${crawler.searchMeta.ttl.seconds:120}")
+    private long ttlSeconds;
+
+    @Value("${crawler.searchMeta.maximumSize:10000}")
+    private long maximumSize;
+
+    private Cache<SearchQuery, SearchMeta> metaCache;
+
+    @PostConstruct
+    public void init() {
+        metaCache = CacheBuilder.newBuilder()
+                .maximumSize(maximumSize)
+                .expireAfterWrite(ttlSeconds, TimeUnit.SECONDS)
+                .recordStats()
+                .build();
+        log.info("init search meta cache, ttl: {}s, maximumSize: {}", ttlSeconds, maximumSize);
+    }
+
+    @Override
+    public CompletableFuture<SearchPage> getPage(SearchQuery query, int page, String cookie) {
+        CompletableFuture<String> html = crawlerService.getHtmlAsync(getUrl(query, page), cookie, true);
+        return Futures.cancelling(html.thenApplyAsync(weiBoJsonpHtmlService::parsePage, scheduler), html);
+    }
+
+    @Override
+    public SearchMeta getCachedMeta(SearchQuery query) {
+        return metaCache.getIfPresent(query);
+    }
+
+    @Override
+    public CompletableFuture<SearchMeta> loadMeta(SearchQuery query, SearchPage firstPage, String cookie) {
+        int pageCount = firstPage.getPageCount();
+        CompletableFuture<SearchPage> lastPageFuture = pageCount == 1
+                ? CompletableFuture.completedFuture(firstPage)
+                : getPage(query, pageCount, cookie);
+        CompletableFuture<Integer> lastPageSizeFuture = Futures.cancelling(lastPageFuture.thenApply(SearchPage::getCardCount), lastPageFuture);
+        return Futures.cancelling(lastPageSizeFuture.thenApply(lastPageSize -> {
+            SearchMeta meta = new SearchMeta(pageCount, firstPage.getCardCount(), lastPageSize, System.currentTimeMillis());
+            metaCache.put(query, meta);
+            return meta;
+        }), lastPageSizeFuture);
+    }
+
+    @Override
+    public Map<String, Object> getStats() {
+        CacheStats stats = metaCache.stats();
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("size", metaCache.size());
+        result.put("hitCount", stats.hitCount());
+        result.put("missCount", stats.missCount());
+        result.put("hitRate", stats.hitRate());
+        return result;
+    }
+
+    /**
+     * 第1页不带page参数, 与首次搜索的url一致, 便于请求合并
+     */
+    private String getUrl(SearchQuery query, int page) {
+        String url = "https://s.weibo.com/weibo?q=" + query.getQ() + "&Refer=article_weibo";
+        if (query.getStartTime() != null && query.getEndTime() != null) {
+            url = url + "&typeall=1&suball=1&timescope=custom:" + query.getStartTime().format(TIME_SCOPE_FORMATTER) + ":" + query.getEndTime().format(TIME_SCOPE_FORMATTER);
+        }
+        if (page > 1) {
+            url = url + "&page=" + page;
+        }
+        return url;
+    }
+}
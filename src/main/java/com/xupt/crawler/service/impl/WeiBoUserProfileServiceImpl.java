@@ -0,0 +1,110 @@
+package com.xupt.crawler.service.impl;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import com.xupt.crawler.service.CrawlerService;
+import com.xupt.crawler.service.WeiBoUserProfileService;
+import com.xupt.crawler.service.model.UserProfile;
+import com.xupt.crawler.service.parser.ProfilePageExtractor;
+import com.xupt.crawler.utils.concurrent.Futures;
+import com.xupt.crawler.utils.concurrent.SharedFuture;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.logging.log4j.util.Strings;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 用户主页信息缓存, 以uid为key, 粉丝数和地址在一段时间内基本不变,
+ * 同一用户在多个请求、多条微博之间只请求一次主页
+ */
+@Slf4j
+@Service
+public class WeiBoUserProfileServiceImpl implements WeiBoUserProfileService {
+
+    @Autowired
+    private CrawlerService crawlerService;
+
+    @Value("${crawler.profileCache.ttl.minutes:60}")
+    private long ttlMinutes;
+
+    @Value("${crawler.profileCache.maximumSize:100000}")
+    private long maximumSize;
+
+    /**
+     * 缓存的是future, 同一uid并发请求时也只会请求一次主页; 等待它的请求都取消后主页请求也被取消
+     */
+    private Cache<String, SharedFuture<UserProfile>> profileCache;
+
+    @PostConstruct
+    public void init() {
+        profileCache = CacheBuilder.newBuilder()
+                .maximumSize(maximumSize)
+                .expireAfterWrite(ttlMinutes, TimeUnit.MINUTES)
+                .recordStats()
+                .build();
+        log.info("init user profile cache, ttl: {}min, maximumSize: {}", ttlMinutes, maximumSize);
+    }
+
+    @Override
+    public CompletableFuture<UserProfile> getProfile(String uid, String cookie) {
+        CompletableFuture<UserProfile> future = null;
+        while (future == null) {
+            SharedFuture<UserProfile> shared;
+            try {
+                shared = profileCache.get(uid, () -> fetchProfile(uid, cookie));
+            } catch (ExecutionException e) {
+                shared = fetchProfile(uid, cookie);
+            }
+            // future可能在放入缓存之前就已经失败, 此时fetchProfile中的移除不会生效
+            CompletableFuture<UserProfile> source = shared.getSource();
+            if (source.isDone() && (source.isCompletedExceptionally() || source.join().isEmpty())) {
+                profileCache.asMap().remove(uid, shared);
+            }
+            // 之前等待的请求都已取消时主页请求已被取消, 重新请求
+            future = shared.subscribe();
+            if (future == null) {
+                profileCache.asMap().remove(uid, shared);
+            }
+        }
+        return Futures.cancelling(future.exceptionally(e -> {
+            log.warn("get homepage failed. uid: {} error: {}", uid, e.getMessage());
+            return new UserProfile(uid, Strings.EMPTY, Strings.EMPTY, Strings.EMPTY, Strings.EMPTY);
+        }), future);
+    }
+
+    @Override
+    public Map<String, Object> getStats() {
+        CacheStats stats = profileCache.stats();
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("size", profileCache.size());
+        result.put("hitCount", stats.hitCount());
+        result.put("missCount", stats.missCount());
+        result.put("hitRate", stats.hitRate());
+        result.put("evictionCount", stats.evictionCount());
+        return result;
+    }
+
+    private SharedFuture<UserProfile> fetchProfile(String uid, String cookie) {
+        String homepageLink = "https://weibo.com/u/" + uid;
+        // 边读边解析, 拿到粉丝数、地址等信息后不再读取主页剩余内容
+        CompletableFuture<UserProfile> future = crawlerService.fetchAsync(homepageLink, cookie,
+                reader -> ProfilePageExtractor.extract(uid, reader));
+        SharedFuture<UserProfile> shared = new SharedFuture<>(future);
+        // 失败、取消或没有解析到任何信息(如被重定向到登录页)时不缓存, 下次重新获取
+        future.whenComplete((profile, e) -> {
+            if (e != null || profile.isEmpty()) {
+                profileCache.asMap().remove(uid, shared);
+            }
+        });
+        return shared;
+    }
+}
@@ -0,0 +1,153 @@
+package com.xupt.crawler.service.job;
+
+import com.xupt.crawler.service.crawl.CrawlListener;
+import com.xupt.crawler.service.model.Expansion;
+import com.xupt.crawler.service.model.SearchQuery;
+import lombok.Getter;
+
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 后台抓取任务, 进度计数在抓取线程上更新, 查询时读取快照
+ */
+@Getter
+public class CrawlJob implements CrawlListener {
+
+    public enum Status {
+        QUEUED, RUNNING, SUCCEEDED, FAILED
+    }
+
+    private final String id;
+
+    private final SearchQuery query;
+
+    private final Set<Expansion> expansions;
+
+    private final String cookie;
+
+    private final String format;
+
+    /**
+     * 是否按时间窗口切分抓取
+     */
+    private final boolean shard;
+
+    private final long createdAt = System.currentTimeMillis();
+
+    private volatile Status status = Status.QUEUED;
+
+    private volatile long startedAt;
+
+    private volatile long finishedAt;
+
+    private volatile int pageCount;
+
+    private volatile String errorMsg;
+
+    private volatile Path file;
+
+    private final AtomicInteger pagesDone = new AtomicInteger();
+
+    private final AtomicInteger postsDone = new AtomicInteger();
+
+    private final AtomicInteger requests = new AtomicInteger();
+
+    private final AtomicInteger errors = new AtomicInteger();
+
+    CrawlJob(String id, SearchQuery query, Set<Expansion> expansions, String cookie, String format, boolean shard) {
+        this.id = id;
+        this.query = query;
+        this.expansions = expansions;
+        this.cookie = cookie;
+        this.format = format;
+        this.shard = shard;
+    }
+
+    void started() {
+        startedAt = System.currentTimeMillis();
+        status = Status.RUNNING;
+    }
+
+    void succeeded(Path file) {
+        this.file = file;
+        finishedAt = System.currentTimeMillis();
+        status = Status.SUCCEEDED;
+    }
+
+    void failed(String errorMsg) {
+        this.errorMsg = errorMsg;
+        errors.incrementAndGet();
+        finishedAt = System.currentTimeMillis();
+        status = Status.FAILED;
+    }
+
+    boolean isFinished() {
+        return status == Status.SUCCEEDED || status == Status.FAILED;
+    }
+
+    @Override
+    public void onPageCount(int pageCount) {
+        this.pageCount = pageCount;
+    }
+
+    @Override
+    public void onPageRequested(int page) {
+        requests.incrementAndGet();
+    }
+
+    @Override
+    public void onPageDone(int page, int posts) {
+        pagesDone.incrementAndGet();
+        postsDone.addAndGet(posts);
+    }
+
+    @Override
+    public void onPageFailed(int page, Throwable e) {
+        pagesDone.incrementAndGet();
+        errors.incrementAndGet();
+    }
+
+    /**
+     * 任务状态, requests 只统计该任务发出的搜索页请求, 用户主页和转发列表请求由全局缓存和队列调度, 不计入
+     */
+    public Map<String, Object> toView() {
+        Map<String, Object> view = new LinkedHashMap<>();
+        view.put("id", id);
+        view.put("status", status);
+        view.put("q", query.getQ());
+        view.put("startTime", query.getStartTime());
+        view.put("endTime", query.getEndTime());
+        view.put("format", format);
+        view.put("shard", shard);
+        view.put("pageCount", pageCount);
+        view.put("pagesDone", pagesDone.get());
+        view.put("postsDone", postsDone.get());
+        view.put("requests", requests.get());
+        view.put("errors", errors.get());
+        view.put("createdAt", createdAt);
+        view.put("startedAt", startedAt);
+        view.put("finishedAt", finishedAt);
+        view.put("etaSeconds", getEtaSeconds());
+        view.put("errorMsg", errorMsg);
+        return view;
+    }
+
+    /**
+     * 按已完成页的平均耗时估算剩余时间, 未开始或还没有完成的页时返回null
+     */
+    private Long getEtaSeconds() {
+        if (status == Status.SUCCEEDED || status == Status.FAILED) {
+            return 0L;
+        }
+        int done = pagesDone.get();
+        if (status != Status.RUNNING || done == 0 || pageCount == 0) {
+            return null;
+        }
+        long elapsed = System.currentTimeMillis() - startedAt;
+        return elapsed * (pageCount - done) / done / 1000;
+    }
+}
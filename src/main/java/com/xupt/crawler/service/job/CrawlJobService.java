@@ -0,0 +1,184 @@
+package com.xupt.crawler.service.job;
+
+import com.xupt.crawler.controller.resp.WeiboDomain;
+import com.xupt.crawler.service.crawl.PageCrawler;
+import com.xupt.crawler.service.crawl.PageCursor;
+import com.xupt.crawler.service.model.Expansion;
+import com.xupt.crawler.service.model.SearchQuery;
+import com.xupt.crawler.utils.CSV.CSVUtils;
+import com.xupt.crawler.utils.excel.ExcelUtils;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.poi.xssf.streaming.SXSSFWorkbook;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 后台抓取任务: 提交后立即返回任务id, 任务在独立的有界线程池上排队执行, 结果写入本地文件供下载.
+ * 队列满时拒绝提交, 不影响list等交互请求
+ */
+@Slf4j
+@Component
+public class CrawlJobService {
+
+    public static final String CSV = "csv";
+    public static final String XLSX = "xlsx";
+
+    @Autowired
+    private PageCrawler pageCrawler;
+
+    /**
+     * 同时执行的任务数
+     */
+    @Value("${crawler.job.workers:2}")
+    private int workers;
+
+    /**
+     * 排队等待的任务数上限
+     */
+    @Value("${crawler.job.queueCapacity:10}")
+    private int queueCapacity;
+
+    @Value("${crawler.job.dir:data/jobs}")
+    private String dir;
+
+    /**
+     * 已结束的任务及其文件保留时间
+     */
+    @Value("${crawler.job.ttl.hours:24}")
+    private long ttlHours;
+
+    private ThreadPoolExecutor executor;
+
+    private final Map<String, CrawlJob> jobs = new ConcurrentHashMap<>();
+
+    private final AtomicLong submittedCount = new AtomicLong();
+
+    private final AtomicLong rejectedCount = new AtomicLong();
+
+    @PostConstruct
+    public void init() {
+        AtomicInteger threadIndex = new AtomicInteger();
+        executor = new ThreadPoolExecutor(workers, workers, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueCapacity),
+                runnable -> new Thread(runnable, "crawler-job-" + threadIndex.getAndIncrement()),
+                new ThreadPoolExecutor.AbortPolicy());
+        log.info("init crawl job service, workers: {} queueCapacity: {} dir: {}", workers, queueCapacity, dir);
+    }
+
+    @PreDestroy
+    public void destroy() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * @param format csv 或 xlsx
+     * @param shard  是否按时间窗口切分抓取
+     * @throws RejectedExecutionException 任务队列已满
+     */
+    public CrawlJob submit(SearchQuery query, Set<Expansion> expansions, String cookie, String format, boolean shard) {
+        if (!CSV.equals(format) && !XLSX.equals(format)) {
+            throw new RuntimeException(String.format("param format error, format: %s", format));
+        }
+        purgeExpired();
+        CrawlJob job = new CrawlJob(UUID.randomUUID().toString().replace("-", ""), query, expansions, cookie, format, shard);
+        jobs.put(job.getId(), job);
+        try {
+            executor.execute(() -> run(job));
+        } catch (RejectedExecutionException e) {
+            jobs.remove(job.getId());
+            rejectedCount.incrementAndGet();
+            throw e;
+        }
+        submittedCount.incrementAndGet();
+        return job;
+    }
+
+    /**
+     * 不存在或已过期时返回null
+     */
+    public CrawlJob get(String id) {
+        return jobs.get(id);
+    }
+
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("jobs", jobs.size());
+        stats.put("running", executor.getActiveCount());
+        stats.put("queued", executor.getQueue().size());
+        stats.put("submittedCount", submittedCount.get());
+        stats.put("rejectedCount", rejectedCount.get());
+        return stats;
+    }
+
+    private void run(CrawlJob job) {
+        job.started();
+        log.info("crawl job started. id: {} q: {}", job.getId(), job.getQuery().getQ());
+        Path file = Paths.get(dir, job.getId() + "." + job.getFormat()).toAbsolutePath();
+        Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        try {
+            Files.createDirectories(file.getParent());
+            // 同一查询重新提交时从断点继续
+            CompletableFuture<PageCursor> cursor = job.isShard()
+                    ? pageCrawler.startSharded(job.getQuery(), job.getCookie(), job.getExpansions(), job, true)
+                    : pageCrawler.start(job.getQuery(), job.getCookie(), job.getExpansions(), job, true);
+            try (PageCursor pages = cursor.join();
+                 OutputStream out = Files.newOutputStream(tmp)) {
+                if (CSV.equals(job.getFormat())) {
+                    CSVUtils.exportCSV(out, WeiboDomain.class, pages, false);
+                } else {
+                    ExcelUtils.write(out, WeiboDomain.class, pages, SXSSFWorkbook.DEFAULT_WINDOW_SIZE);
+                }
+                pages.complete();
+            }
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            job.succeeded(file);
+            log.info("crawl job succeeded. id: {} pages: {} posts: {}", job.getId(), job.getPagesDone(), job.getPostsDone());
+        } catch (Exception e) {
+            log.error("crawl job failed. id: {} error is ", job.getId(), e);
+            job.failed(e.getCause() == null ? e.getMessage() : e.getCause().getMessage());
+            try {
+                Files.deleteIfExists(tmp);
+            } catch (IOException ignored) {
+            }
+        }
+    }
+
+    private void purgeExpired() {
+        long expireBefore = System.currentTimeMillis() - TimeUnit.HOURS.toMillis(ttlHours);
+        jobs.values().removeIf(job -> {
+            if (!job.isFinished() || job.getFinishedAt() >= expireBefore) {
+                return false;
+            }
+            if (job.getFile() != null) {
+                try {
+                    Files.deleteIfExists(job.getFile());
+                } catch (IOException e) {
+                    log.warn("delete expired job file failed. id: {} error: {}", job.getId(), e.getMessage());
+                }
+            }
+            return true;
+        });
+    }
+}
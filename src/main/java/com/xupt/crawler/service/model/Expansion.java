@@ -0,0 +1,52 @@
+package com.xupt.crawler.service.model;
+
+import org.springframework.util.StringUtils;
+
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.Set;
+
+/**
+ * 搜索结果之外需要额外请求才能拿到的信息, 调用方只请求需要的部分
+ */
+public enum Expansion {
+
+    /**
+     * 作者主页: 粉丝数、地址
+     */
+    PROFILE,
+
+    /**
+     * 转发列表: 转发用户的uid和昵称, 输出到relayUidList/relayNames列, 同时写入转发关系图
+     */
+    RELAY,
+
+    /**
+     * 转发列表只写入转发关系图, 不输出relayUidList/relayNames列, 省去每条微博的转发用户列表
+     */
+    GRAPH;
+
+    public static final Set<Expansion> ALL = Collections.unmodifiableSet(EnumSet.allOf(Expansion.class));
+
+    /**
+     * 逗号分隔, 不区分大小写; 为空时返回全部, none表示都不需要
+     */
+    public static Set<Expansion> parse(String expand) {
+        if (StringUtils.isEmpty(expand)) {
+            return ALL;
+        }
+        Set<Expansion> expansions = EnumSet.noneOf(Expansion.class);
+        for (String name : expand.split(",")) {
+            name = name.trim();
+            if (name.isEmpty() || "none".equalsIgnoreCase(name)) {
+                continue;
+            }
+            try {
+                expansions.add(Expansion.valueOf(name.toUpperCase()));
+            } catch (IllegalArgumentException e) {
+                throw new RuntimeException(String.format("param expand error, expand: %s, options: profile,relay,graph,none", expand));
+            }
+        }
+        return expansions;
+    }
+}
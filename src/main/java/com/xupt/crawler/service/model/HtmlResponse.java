@@ -0,0 +1,19 @@
+package com.xupt.crawler.service.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import okhttp3.Cookie;
+
+import java.util.List;
+
+/**
+ * 响应体和响应中Set-Cookie设置的cookie
+ */
+@Data
+@AllArgsConstructor
+public class HtmlResponse {
+
+    private String body;
+
+    private List<Cookie> cookies;
+}
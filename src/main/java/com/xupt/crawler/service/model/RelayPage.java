@@ -0,0 +1,20 @@
+package com.xupt.crawler.service.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+/**
+ * 一页转发列表, totalPage为该微博转发列表的总页数
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class RelayPage {
+
+    private int totalPage;
+
+    private List<RelayUser> users;
+}
@@ -0,0 +1,18 @@
+package com.xupt.crawler.service.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * 转发微博的用户
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class RelayUser {
+
+    private String uid;
+
+    private String name;
+}
@@ -0,0 +1,28 @@
+package com.xupt.crawler.service.model;
+
+import lombok.Data;
+
+/**
+ * 搜索结果页中的一条微博卡片(card-wrap)
+ */
+@Data
+public class SearchCard {
+
+    private String mid;
+
+    private String uid;
+
+    private String name;
+
+    private String txt;
+
+    private String img;
+
+    private String date;
+
+    private String relayNum;
+
+    private String comment;
+
+    private String likes;
+}
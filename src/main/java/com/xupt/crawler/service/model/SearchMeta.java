@@ -0,0 +1,24 @@
+package com.xupt.crawler.service.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+/**
+ * 搜索结果的总页数和首、末页的卡片数, 用于计算总条数
+ */
+@Data
+@AllArgsConstructor
+public class SearchMeta {
+
+    private int pageCount;
+
+    private int firstPageSize;
+
+    private int lastPageSize;
+
+    private long fetchedAt;
+
+    public int getItemCount() {
+        return (pageCount - 1) * firstPageSize + lastPageSize;
+    }
+}
@@ -0,0 +1,29 @@
+package com.xupt.crawler.service.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+import java.util.List;
+
+/**
+ * 一次解析得到的搜索结果页, 页数、卡片数和卡片内容都从同一次解析中得到
+ */
+@Data
+@AllArgsConstructor
+public class SearchPage {
+
+    /**
+     * 搜索结果的总页数
+     */
+    private int pageCount;
+
+    /**
+     * 本页的微博卡片数
+     */
+    private int cardCount;
+
+    /**
+     * 本页可以解析出用户的微博卡片
+     */
+    private List<SearchCard> cards;
+}
@@ -0,0 +1,18 @@
+package com.xupt.crawler.service.model;
+
+import lombok.Value;
+
+import java.time.LocalDateTime;
+
+/**
+ * 一次搜索的条件, 不包含页码; 起止时间为空表示不限时间
+ */
+@Value
+public class SearchQuery {
+
+    private String q;
+
+    private LocalDateTime startTime;
+
+    private LocalDateTime endTime;
+}
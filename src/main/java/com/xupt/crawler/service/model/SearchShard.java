@@ -0,0 +1,25 @@
+package com.xupt.crawler.service.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+/**
+ * 按时间窗口切分后的一段搜索, 总页数由探测第1页得到
+ */
+@Data
+@AllArgsConstructor
+public class SearchShard {
+
+    private SearchQuery query;
+
+    private int pageCount;
+
+    /**
+     * 探测时请求到的第1页, 抓取时直接使用; 不写入断点, 从断点恢复时为null
+     */
+    private SearchPage firstPage;
+
+    public SearchShard(SearchQuery query, int pageCount) {
+        this(query, pageCount, null);
+    }
+}
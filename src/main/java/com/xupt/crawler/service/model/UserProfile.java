@@ -0,0 +1,28 @@
+package com.xupt.crawler.service.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * 用户主页中解析出的信息
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class UserProfile {
+
+    private String uid;
+
+    private String fans;
+
+    private String address;
+
+    private String follows;
+
+    private String posts;
+
+    public boolean isEmpty() {
+        return (fans == null || fans.isEmpty()) && (address == null || address.isEmpty());
+    }
+}
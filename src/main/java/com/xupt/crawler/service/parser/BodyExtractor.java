@@ -0,0 +1,13 @@
+package com.xupt.crawler.service.parser;
+
+import java.io.IOException;
+import java.io.Reader;
+
+/**
+ * 从响应体中边读边解析出结果, 拿到需要的内容后可以不再继续读取
+ */
+@FunctionalInterface
+public interface BodyExtractor<T> {
+
+    T extract(Reader reader) throws IOException;
+}
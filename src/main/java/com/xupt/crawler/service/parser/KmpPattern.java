@@ -0,0 +1,50 @@
+package com.xupt.crawler.service.parser;
+
+/**
+ * 预先计算失配表的KMP模式串, 逐字符推进匹配状态, 不需要回退输入
+ */
+final class KmpPattern {
+
+    private final char[] pattern;
+
+    private final int[] failure;
+
+    KmpPattern(String pattern) {
+        this.pattern = pattern.toCharArray();
+        this.failure = new int[this.pattern.length];
+        int k = 0;
+        for (int i = 1; i < this.pattern.length; i++) {
+            while (k > 0 && this.pattern[i] != this.pattern[k]) {
+                k = failure[k - 1];
+            }
+            if (this.pattern[i] == this.pattern[k]) {
+                k++;
+            }
+            failure[i] = k;
+        }
+    }
+
+    int length() {
+        return pattern.length;
+    }
+
+    /**
+     * 读入一个字符后的状态, 返回值等于 {@link #length()} 时表示刚好匹配完整个模式串
+     */
+    int next(int state, char c) {
+        if (state == pattern.length) {
+            state = failure[state - 1];
+        }
+        while (state > 0 && pattern[state] != c) {
+            state = failure[state - 1];
+        }
+        if (pattern[state] == c) {
+            state++;
+        }
+        return state;
+    }
+
+    boolean matched(int state) {
+        return state == pattern.length;
+    }
+}
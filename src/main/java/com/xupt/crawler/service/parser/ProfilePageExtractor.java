@@ -0,0 +1,226 @@
+package com.xupt.crawler.service.parser;
+
+import com.xupt.crawler.service.model.UserProfile;
+import org.apache.logging.log4j.util.Strings;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.io.UncheckedIOException;
+
+/**
+ * 用户主页的单遍解析
+ * <p>
+ * 主页内容在脚本的字符串里, 形如 {@code <strong class=\"W_f18\">123<\/strong><span class=\"S_txt2\">粉丝<\/span>}.
+ * 逐字符读入, 用KMP状态机匹配 关注/粉丝/微博 和地址所在的span, 匹配到计数标签时在最近读入的字符中
+ * 向前找 {@code <\/strong>} 前的数字; 所有字段都拿到后不再读取剩余内容
+ */
+public final class ProfilePageExtractor {
+
+    private static final int BUFFER_SIZE = 8192;
+
+    /**
+     * 只保留最近读入的字符, 用于计数标签的向前查找, 必须是2的幂
+     */
+    private static final int RING_SIZE = 128;
+
+    private static final int RING_MASK = RING_SIZE - 1;
+
+    private static final int MAX_COUNT_LENGTH = 20;
+
+    private static final int MAX_ADDRESS_WINDOW = 170;
+
+    private static final int MAX_ADDRESS_LENGTH = 10;
+
+    private static final String STRONG_END = "<\\/strong>";
+
+    private static final String SPAN_END = "<\\/span>";
+
+    private static final KmpPattern FOLLOWS = new KmpPattern("关注");
+
+    private static final KmpPattern FANS = new KmpPattern("粉丝");
+
+    private static final KmpPattern POSTS = new KmpPattern("微博");
+
+    private static final KmpPattern ADDRESS = new KmpPattern("<span class=\\\"item_text W_fl\\\">");
+
+    private final char[] ring = new char[RING_SIZE];
+
+    private long position;
+
+    private int followsState;
+
+    private int fansState;
+
+    private int postsState;
+
+    private int addressState;
+
+    private String follows;
+
+    private String fans;
+
+    private String posts;
+
+    private String address;
+
+    private StringBuilder addressCapture;
+
+    private ProfilePageExtractor() {
+    }
+
+    public static UserProfile extract(String uid, Reader reader) throws IOException {
+        ProfilePageExtractor extractor = new ProfilePageExtractor();
+        char[] buffer = new char[BUFFER_SIZE];
+        int n;
+        while (!extractor.isComplete() && (n = reader.read(buffer)) != -1) {
+            for (int i = 0; i < n && !extractor.isComplete(); i++) {
+                extractor.feed(buffer[i]);
+            }
+        }
+        return extractor.toProfile(uid);
+    }
+
+    public static UserProfile extract(String uid, String html) {
+        try {
+            return extract(uid, new StringReader(html));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private boolean isComplete() {
+        return follows != null && fans != null && posts != null && address != null;
+    }
+
+    private void feed(char c) {
+        ring[(int) (position & RING_MASK)] = c;
+        position++;
+
+        if (addressCapture != null) {
+            addressCapture.append(c);
+            if (endsWith(addressCapture, SPAN_END) || addressCapture.length() >= MAX_ADDRESS_WINDOW) {
+                finishAddress();
+            }
+        }
+        if (follows == null) {
+            followsState = FOLLOWS.next(followsState, c);
+            if (FOLLOWS.matched(followsState)) {
+                follows = countBefore(FOLLOWS.length());
+            }
+        }
+        if (fans == null) {
+            fansState = FANS.next(fansState, c);
+            if (FANS.matched(fansState)) {
+                fans = countBefore(FANS.length());
+            }
+        }
+        if (posts == null) {
+            postsState = POSTS.next(postsState, c);
+            if (POSTS.matched(postsState)) {
+                posts = countBefore(POSTS.length());
+            }
+        }
+        if (address == null) {
+            addressState = ADDRESS.next(addressState, c);
+            if (ADDRESS.matched(addressState)) {
+                // 上一个span还没结束就出现了新的span, 上一个一定包含标签, 直接丢弃
+                addressCapture = new StringBuilder(MAX_ADDRESS_WINDOW);
+            }
+        }
+    }
+
+    /**
+     * 标签前必须是 {@code <\/strong>} 加上至多一个标签, 取 {@code <\/strong>} 前连续的数字; 不符合时返回null继续查找
+     */
+    private String countBefore(int labelLength) {
+        long labelStart = position - labelLength;
+        long lowest = Math.max(0, position - RING_SIZE);
+        if (labelStart - 1 < lowest || charAt(labelStart - 1) != '>') {
+            return null;
+        }
+        long strongStart = lastIndexOf(STRONG_END, labelStart, lowest);
+        if (strongStart < 0) {
+            return null;
+        }
+        long between = strongStart + STRONG_END.length();
+        if (between < labelStart) {
+            if (charAt(between) != '<') {
+                return null;
+            }
+            for (long i = between + 1; i < labelStart - 1; i++) {
+                if (charAt(i) == '<' || charAt(i) == '>') {
+                    return null;
+                }
+            }
+        }
+        long digitStart = strongStart;
+        while (digitStart - 1 >= lowest && strongStart - digitStart < MAX_COUNT_LENGTH && Character.isDigit(charAt(digitStart - 1))) {
+            digitStart--;
+        }
+        if (digitStart == strongStart) {
+            return null;
+        }
+        StringBuilder count = new StringBuilder((int) (strongStart - digitStart));
+        for (long i = digitStart; i < strongStart; i++) {
+            count.append(charAt(i));
+        }
+        return count.toString();
+    }
+
+    /**
+     * 去掉转义的换行、制表符和空格后, 不包含标签的非空内容即为地址, 过长的视为无效
+     */
+    private void finishAddress() {
+        String raw = addressCapture.toString();
+        addressCapture = null;
+        int end = raw.indexOf(SPAN_END);
+        String s = (end < 0 ? raw : raw.substring(0, end))
+                .replace("\\r", "").replace("\\n", "").replace("\\t", "").replace(" ", "");
+        if (s.isEmpty() || s.indexOf('<') >= 0 || s.indexOf('>') >= 0) {
+            return;
+        }
+        address = s.length() > MAX_ADDRESS_LENGTH ? Strings.EMPTY : s;
+    }
+
+    private UserProfile toProfile(String uid) {
+        return new UserProfile(uid,
+                fans == null ? Strings.EMPTY : fans,
+                address == null ? Strings.EMPTY : address,
+                follows == null ? Strings.EMPTY : follows,
+                posts == null ? Strings.EMPTY : posts);
+    }
+
+    private char charAt(long index) {
+        return ring[(int) (index & RING_MASK)];
+    }
+
+    /**
+     * 在 [lowest, end) 内最后一次出现str的位置
+     */
+    private long lastIndexOf(String str, long end, long lowest) {
+        for (long start = end - str.length(); start >= lowest; start--) {
+            int i = 0;
+            while (i < str.length() && charAt(start + i) == str.charAt(i)) {
+                i++;
+            }
+            if (i == str.length()) {
+                return start;
+            }
+        }
+        return -1;
+    }
+
+    private static boolean endsWith(StringBuilder sb, String suffix) {
+        int offset = sb.length() - suffix.length();
+        if (offset < 0) {
+            return false;
+        }
+        for (int i = 0; i < suffix.length(); i++) {
+            if (sb.charAt(offset + i) != suffix.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
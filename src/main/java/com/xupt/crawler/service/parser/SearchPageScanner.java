@@ -0,0 +1,313 @@
+package com.xupt.crawler.service.parser;
+
+import com.xupt.crawler.service.model.SearchCard;
+import com.xupt.crawler.service.model.SearchPage;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.logging.log4j.util.Strings;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 不构建DOM的搜索结果页解析
+ * <p>
+ * 先在字符层面定位结果区域(pl_feedlist_index), 按 card-wrap 的起始位置切分成卡片区间,
+ * 再在每个区间内向前扫描取出 mid、nick-name、href、txt、图片、from 和 card-act 中的计数.
+ * 页面头部、脚本和侧边栏都不会被解析, 解析结果与jsoup方式一致
+ */
+@Slf4j
+public final class SearchPageScanner {
+
+    private static final String CONTAINER = "id=\"pl_feedlist_index\"";
+
+    private static final String CARD_WRAP = "class=\"card-wrap";
+
+    private static final String PAGER = "class=\"m-page\"";
+
+    private static final String PAGER_SCROLL = "class=\"s-scroll\"";
+
+    private static final String NAME = "class=\"name\"";
+
+    private static final String TXT = "class=\"txt\"";
+
+    private static final String IMG_LIST = "class=\"m1 w1 c1\"";
+
+    private static final String FROM = "class=\"from\"";
+
+    private static final String CARD_ACT = "class=\"card-act\"";
+
+    private SearchPageScanner() {
+    }
+
+    public static SearchPage scan(String html) {
+        int regionStart = html.indexOf(CONTAINER);
+        if (regionStart < 0) {
+            regionStart = 0;
+        }
+        int pagerStart = html.indexOf(PAGER, regionStart);
+        int regionEnd = pagerStart < 0 ? html.length() : pagerStart;
+        int pageCount = pagerStart < 0 ? 1 : scanPageCount(html, pagerStart);
+
+        int cardCount = 0;
+        List<SearchCard> cards = new ArrayList<>();
+        int cardStart = nextCardWrap(html, regionStart, regionEnd);
+        while (cardStart >= 0) {
+            int nextCardStart = nextCardWrap(html, html.indexOf('>', cardStart) + 1, regionEnd);
+            int cardEnd = nextCardStart < 0 ? regionEnd : nextCardStart;
+            int nameAt = indexOf(html, NAME, cardStart, cardEnd);
+            if (nameAt >= 0) {
+                cardCount++;
+                try {
+                    SearchCard card = scanCard(html, cardStart, cardEnd, nameAt);
+                    if (card != null) {
+                        cards.add(card);
+                    }
+                } catch (Exception e) {
+                    log.error("scan card exception. error is ", e);
+                }
+            }
+            cardStart = nextCardStart;
+        }
+        return new SearchPage(pageCount, cardCount, cards);
+    }
+
+    private static SearchCard scanCard(String html, int from, int to, int nameAt) {
+        int nameTagStart = html.lastIndexOf('<', nameAt);
+        int nameTagEnd = html.indexOf('>', nameAt);
+        String name = attr(html, nameTagStart, nameTagEnd, "nick-name");
+        if (Strings.isEmpty(name)) {
+            return null;
+        }
+        String uid = attr(html, nameTagStart, nameTagEnd, "href").replace("//", "").split("/")[1];
+        uid = uid.substring(0, uid.indexOf("?"));
+
+        SearchCard card = new SearchCard();
+        card.setMid(attr(html, from, html.indexOf('>', from), "mid"));
+        card.setUid(uid);
+        card.setName(name);
+        card.setTxt(elementText(html, from, to, TXT));
+        card.setImg(Strings.EMPTY);
+        int imgListAt = indexOf(html, IMG_LIST, from, to);
+        if (imgListAt >= 0) {
+            int imgAt = indexOf(html, "<img", imgListAt, to);
+            if (imgAt >= 0) {
+                card.setImg(attr(html, imgAt, html.indexOf('>', imgAt), "src").replace("//", ""));
+            }
+        }
+        card.setDate(elementText(html, from, to, FROM));
+        card.setRelayNum(Strings.EMPTY);
+        card.setComment(Strings.EMPTY);
+        card.setLikes(Strings.EMPTY);
+        int cardActAt = indexOf(html, CARD_ACT, from, to);
+        if (cardActAt >= 0) {
+            List<String> actions = listItemTexts(html, cardActAt, to);
+            if (actions.size() >= 4) {
+                card.setRelayNum(actions.get(1));
+                card.setComment(actions.get(2));
+                card.setLikes(actions.get(3));
+            }
+        }
+        return card;
+    }
+
+    /**
+     * 分页栏最后一项的文本为 "第N页"
+     */
+    private static int scanPageCount(String html, int pagerStart) {
+        int scrollAt = html.indexOf(PAGER_SCROLL, pagerStart);
+        if (scrollAt < 0) {
+            return 1;
+        }
+        int ulEnd = html.indexOf("</ul>", scrollAt);
+        if (ulEnd < 0) {
+            return 1;
+        }
+        int lastLi = html.lastIndexOf("<li", ulEnd);
+        if (lastLi < scrollAt) {
+            return 1;
+        }
+        String pageCountStr = text(html, lastLi, ulEnd);
+        return Integer.parseInt(pageCountStr.substring(1, pageCountStr.indexOf("页")));
+    }
+
+    /**
+     * 下一个 class 以 card-wrap 为第一个类名的标签的起始位置
+     */
+    private static int nextCardWrap(String html, int from, int to) {
+        int at = indexOf(html, CARD_WRAP, from, to);
+        while (at >= 0) {
+            char next = html.charAt(at + CARD_WRAP.length());
+            if (next == '"' || next == ' ') {
+                return html.lastIndexOf('<', at);
+            }
+            at = indexOf(html, CARD_WRAP, at + CARD_WRAP.length(), to);
+        }
+        return -1;
+    }
+
+    private static List<String> listItemTexts(String html, int from, int to) {
+        List<String> texts = new ArrayList<>(4);
+        int ulEnd = indexOf(html, "</ul>", from, to);
+        int end = ulEnd < 0 ? to : ulEnd;
+        int liAt = indexOf(html, "<li", from, end);
+        while (liAt >= 0) {
+            int contentStart = html.indexOf('>', liAt) + 1;
+            int liEnd = indexOf(html, "</li>", contentStart, end);
+            if (liEnd < 0) {
+                liEnd = end;
+            }
+            texts.add(text(html, contentStart, liEnd));
+            liAt = indexOf(html, "<li", liEnd, end);
+        }
+        return texts;
+    }
+
+    /**
+     * 区间内第一个带有classMarker的元素的文本
+     */
+    private static String elementText(String html, int from, int to, String classMarker) {
+        int at = indexOf(html, classMarker, from, to);
+        if (at < 0) {
+            return Strings.EMPTY;
+        }
+        int tagStart = html.lastIndexOf('<', at);
+        int nameEnd = tagStart + 1;
+        while (nameEnd < at && Character.isLetterOrDigit(html.charAt(nameEnd))) {
+            nameEnd++;
+        }
+        String closeTag = "</" + html.substring(tagStart + 1, nameEnd) + ">";
+        int contentStart = html.indexOf('>', at) + 1;
+        int contentEnd = indexOf(html, closeTag, contentStart, to);
+        return text(html, contentStart, contentEnd < 0 ? to : contentEnd);
+    }
+
+    /**
+     * 标签内属性的值, 属性名前必须是空白, 避免 name 匹配到 nick-name
+     */
+    private static String attr(String html, int tagStart, int tagEnd, String name) {
+        String marker = name + "=\"";
+        int at = indexOf(html, marker, tagStart, tagEnd);
+        while (at >= 0) {
+            if (Character.isWhitespace(html.charAt(at - 1))) {
+                int valueStart = at + marker.length();
+                int valueEnd = html.indexOf('"', valueStart);
+                return decode(html, valueStart, valueEnd);
+            }
+            at = indexOf(html, marker, at + marker.length(), tagEnd);
+        }
+        return Strings.EMPTY;
+    }
+
+    private static String decode(String html, int from, int to) {
+        if (indexOf(html, "&", from, to) < 0) {
+            return html.substring(from, to);
+        }
+        StringBuilder sb = new StringBuilder(to - from);
+        for (int i = from; i < to; i++) {
+            char c = html.charAt(i);
+            if (c == '&') {
+                i = appendEntity(html, i, to, sb);
+            } else {
+                sb.append(c);
+            }
+        }
+        return sb.toString();
+    }
+
+    /**
+     * 与jsoup的 Element.text() 一致: 去掉标签, 解码实体, 连续空白合并为一个空格并去掉首尾空白
+     */
+    private static String text(String html, int from, int to) {
+        StringBuilder sb = new StringBuilder(Math.max(16, to - from));
+        boolean pendingSpace = false;
+        for (int i = from; i < to; i++) {
+            char c = html.charAt(i);
+            if (c == '<') {
+                int tagEnd = html.indexOf('>', i);
+                if (tagEnd < 0 || tagEnd >= to) {
+                    break;
+                }
+                if (html.startsWith("<br", i)) {
+                    pendingSpace = sb.length() > 0;
+                }
+                i = tagEnd;
+                continue;
+            }
+            if (c == '&') {
+                int length = sb.length();
+                int end = appendEntity(html, i, to, sb);
+                if (sb.length() == length + 1 && sb.charAt(length) == ' ') {
+                    sb.setLength(length);
+                    pendingSpace = sb.length() > 0;
+                } else if (pendingSpace && sb.length() > length) {
+                    sb.insert(length, ' ');
+                    pendingSpace = false;
+                }
+                i = end;
+                continue;
+            }
+            if (Character.isWhitespace(c) || c == ' ') {
+                pendingSpace = sb.length() > 0;
+                continue;
+            }
+            if (pendingSpace) {
+                sb.append(' ');
+                pendingSpace = false;
+            }
+            sb.append(c);
+        }
+        return sb.toString();
+    }
+
+    /**
+     * 解码 i 位置开始的实体, 返回实体最后一个字符的位置; 无法识别时原样输出 '&'
+     */
+    private static int appendEntity(String html, int i, int to, StringBuilder sb) {
+        int semi = indexOf(html, ";", i + 1, Math.min(to, i + 10));
+        if (semi < 0) {
+            sb.append('&');
+            return i;
+        }
+        String entity = html.substring(i + 1, semi);
+        switch (entity) {
+            case "amp":
+                sb.append('&');
+                break;
+            case "lt":
+                sb.append('<');
+                break;
+            case "gt":
+                sb.append('>');
+                break;
+            case "quot":
+                sb.append('"');
+                break;
+            case "apos":
+                sb.append('\'');
+                break;
+            case "nbsp":
+                sb.append(' ');
+                break;
+            default:
+                if (entity.length() > 1 && entity.charAt(0) == '#') {
+                    try {
+                        int codePoint = entity.charAt(1) == 'x' || entity.charAt(1) == 'X'
+                                ? Integer.parseInt(entity.substring(2), 16)
+                                : Integer.parseInt(entity.substring(1));
+                        sb.appendCodePoint(codePoint);
+                        break;
+                    } catch (IllegalArgumentException e) {
+                        // 非法的数字实体, 原样输出
+                    }
+                }
+                sb.append('&');
+                return i;
+        }
+        return semi;
+    }
+
+    private static int indexOf(String html, String str, int from, int to) {
+        int at = html.indexOf(str, from);
+        return at < 0 || at + str.length() > to ? -1 : at;
+    }
+}
@@ -0,0 +1,162 @@
+package com.xupt.crawler.service.prefetch;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.xupt.crawler.controller.resp.WeiboDomain;
+import com.xupt.crawler.service.WeiBoJsonpHtmlService;
+import com.xupt.crawler.service.WeiBoSearchService;
+import com.xupt.crawler.service.model.Expansion;
+import com.xupt.crawler.service.model.SearchQuery;
+import com.xupt.crawler.utils.OkHttpClients;
+import com.xupt.crawler.utils.http.HostBulkhead;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+/**
+ * 顺序翻页的预取: 返回第N页后在后台抓取并补全第N+1..N+k页, 结果在短时间内按查询和页码缓存.
+ * 预取的优先级低于用户请求: 全局同时预取的页数有上限, 搜索隔离舱有请求在排队或空闲许可不超过reservedPermits时
+ * 不发起预取, 两种情况都直接放弃, 不排队
+ */
+@Slf4j
+@Component
+public class PagePrefetcher {
+
+    @Autowired
+    private WeiBoSearchService weiBoSearchService;
+
+    @Autowired
+    private WeiBoJsonpHtmlService weiBoJsonpHtmlService;
+
+    /**
+     * 每次预取后面的页数, 0表示关闭预取
+     */
+    @Value("${crawler.prefetch.pages:0}")
+    private int prefetchPages;
+
+    @Value("${crawler.prefetch.ttl.seconds:60}")
+    private long ttlSeconds;
+
+    @Value("${crawler.prefetch.maxInFlight:2}")
+    private int maxInFlight;
+
+    /**
+     * 搜索隔离舱留给用户请求的并发许可数
+     */
+    @Value("${crawler.prefetch.reservedPermits:1}")
+    private int reservedPermits;
+
+    @Value("${crawler.prefetch.maximumSize:1000}")
+    private long maximumSize;
+
+    private Cache<PageKey, CompletableFuture<List<WeiboDomain>>> prefetched;
+
+    private Semaphore permits;
+
+    private final AtomicLong hitCount = new AtomicLong();
+
+    private final AtomicLong missCount = new AtomicLong();
+
+    private final AtomicLong startedCount = new AtomicLong();
+
+    private final AtomicLong skippedCount = new AtomicLong();
+
+    @PostConstruct
+    public void init() {
+        prefetched = CacheBuilder.newBuilder()
+                .maximumSize(maximumSize)
+                .expireAfterWrite(ttlSeconds, TimeUnit.SECONDS)
+                .build();
+        permits = new Semaphore(maxInFlight);
+        log.info("init page prefetcher, pages: {} ttl: {}s maxInFlight: {} reservedPermits: {}",
+                prefetchPages, ttlSeconds, maxInFlight, reservedPermits);
+    }
+
+    /**
+     * 已预取(或正在预取)的页, 没有时返回null.
+     * 返回的是副本, 调用方超时取消时不影响缓存中的预取结果
+     */
+    public CompletableFuture<List<WeiboDomain>> get(SearchQuery query, int page, String cookie, Set<Expansion> expansions) {
+        if (prefetchPages <= 0) {
+            return null;
+        }
+        CompletableFuture<List<WeiboDomain>> future = prefetched.getIfPresent(new PageKey(query, page, cookie, expansions));
+        if (future == null || future.isCompletedExceptionally()) {
+            missCount.incrementAndGet();
+            return null;
+        }
+        hitCount.incrementAndGet();
+        return future.thenApply(Function.identity());
+    }
+
+    /**
+     * 第page页返回之后调用, 预取后面的页
+     */
+    public void prefetchAfter(SearchQuery query, int page, int pageCount, String cookie, Set<Expansion> expansions) {
+        for (int next = page + 1; next <= Math.min(pageCount, page + prefetchPages); next++) {
+            PageKey key = new PageKey(query, next, cookie, expansions);
+            if (prefetched.getIfPresent(key) != null) {
+                continue;
+            }
+            if (!OkHttpClients.getConcurrencyLimiter(HostBulkhead.SEARCH).hasIdleCapacity(reservedPermits)
+                    || !permits.tryAcquire()) {
+                skippedCount.incrementAndGet();
+                return;
+            }
+            startedCount.incrementAndGet();
+            CompletableFuture<List<WeiboDomain>> future;
+            try {
+                future = weiBoSearchService.getPage(query, next, cookie)
+                        .thenCompose(searchPage -> weiBoJsonpHtmlService.parseDataAsync(searchPage, cookie, expansions));
+            } catch (Exception e) {
+                permits.release();
+                log.warn("prefetch page failed. q: {} page: {} error: {}", query.getQ(), next, e.getMessage());
+                continue;
+            }
+            prefetched.put(key, future);
+            int prefetchedPage = next;
+            future.whenComplete((weiboDomains, e) -> {
+                permits.release();
+                if (e != null) {
+                    prefetched.asMap().remove(key, future);
+                    log.warn("prefetch page failed. q: {} page: {} error: {}", query.getQ(), prefetchedPage, e.getMessage());
+                }
+            });
+        }
+    }
+
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("size", prefetched.size());
+        stats.put("hitCount", hitCount.get());
+        stats.put("missCount", missCount.get());
+        stats.put("startedCount", startedCount.get());
+        stats.put("skippedCount", skippedCount.get());
+        stats.put("inFlight", maxInFlight - permits.availablePermits());
+        return stats;
+    }
+
+    @lombok.Value
+    private static class PageKey {
+
+        private SearchQuery query;
+
+        private int page;
+
+        private String cookie;
+
+        private Set<Expansion> expansions;
+    }
+}
@@ -0,0 +1,290 @@
+package com.xupt.crawler.service.relay;
+
+import com.xupt.crawler.service.model.RelayPage;
+import com.xupt.crawler.service.model.RelayUser;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 转发列表的抓取引擎, 所有请求的所有微博共用
+ * <p>
+ * 每条微博是一个任务, 先抓第1页拿到总页数, 再按页数上限(或抽样)生成待抓页码.
+ * 有待抓页码的任务排成一个环, 每次从环头取一个任务发出它的一页再放回环尾,
+ * 因此转发很多的微博不会占满全局的并发数, 其他微博的转发页仍然轮流得到调度.
+ * 拿到的转发用户数达到目标数后不再抓取剩余页
+ */
+@Slf4j
+@Component
+public class RelayCrawler {
+
+    @Autowired
+    @Qualifier("crawlerScheduler")
+    private Executor scheduler;
+
+    /**
+     * 所有微博同时请求的转发页数
+     */
+    @Value("${crawler.relay.maxInFlightPages:16}")
+    private int maxInFlightPages;
+
+    /**
+     * 单条微博同时请求的转发页数
+     */
+    @Value("${crawler.relay.perPost:4}")
+    private int perPostParallelism;
+
+    /**
+     * 每条微博最多抓取的转发页数, 0表示不限制
+     */
+    @Value("${crawler.relay.maxPagesPerPost:20}")
+    private int maxPagesPerPost;
+
+    /**
+     * 超过页数上限时, true为在所有页中均匀抽样, false为只抓前面的页
+     */
+    @Value("${crawler.relay.sample:false}")
+    private boolean sample;
+
+    /**
+     * 拿到的转发用户数达到该值后停止抓取, 0表示不限制
+     */
+    @Value("${crawler.relay.targetRelayers:0}")
+    private int targetRelayers;
+
+    private final Deque<RelayJob> ready = new ArrayDeque<>();
+
+    private int inFlight;
+
+    private int activeJobs;
+
+    private final AtomicLong fetchedPages = new AtomicLong();
+
+    private final AtomicLong skippedPages = new AtomicLong();
+
+    private final AtomicLong stoppedJobs = new AtomicLong();
+
+    public CompletableFuture<List<RelayUser>> crawl(String mid, RelayPageFetcher fetcher) {
+        RelayJob job = new RelayJob(mid, fetcher);
+        job.pages.add(1);
+        // 调用方取消时不再抓取该微博剩余的页, 已发出的转发页请求也被取消
+        job.result.whenComplete((users, e) -> {
+            if (job.result.isCancelled()) {
+                List<CompletableFuture<RelayPage>> running;
+                synchronized (this) {
+                    job.stop();
+                    job.cancelled = true;
+                    if (job.inFlight == 0 && !job.finished) {
+                        job.finished = true;
+                        activeJobs--;
+                    }
+                    running = new ArrayList<>(job.running);
+                }
+                running.forEach(future -> future.cancel(false));
+            }
+        });
+        synchronized (this) {
+            activeJobs++;
+            enqueue(job);
+        }
+        dispatch();
+        return job.result;
+    }
+
+    public synchronized Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("activeJobs", activeJobs);
+        stats.put("readyJobs", ready.size());
+        stats.put("inFlightPages", inFlight);
+        stats.put("fetchedPages", fetchedPages.get());
+        stats.put("skippedPages", skippedPages.get());
+        stats.put("stoppedJobs", stoppedJobs.get());
+        return stats;
+    }
+
+    private void dispatch() {
+        while (true) {
+            RelayJob job;
+            int page;
+            synchronized (this) {
+                if (inFlight >= maxInFlightPages) {
+                    return;
+                }
+                job = ready.pollFirst();
+                if (job == null) {
+                    return;
+                }
+                job.queued = false;
+                if (job.pages.isEmpty()) {
+                    // 已被取消或停止
+                    continue;
+                }
+                page = job.pages.poll();
+                job.inFlight++;
+                inFlight++;
+                enqueue(job);
+            }
+            RelayJob launchedJob = job;
+            int launchedPage = page;
+            scheduler.execute(() -> launch(launchedJob, launchedPage));
+        }
+    }
+
+    private void launch(RelayJob job, int page) {
+        CompletableFuture<RelayPage> future;
+        try {
+            future = job.fetcher.fetch(page);
+        } catch (Throwable e) {
+            future = new CompletableFuture<>();
+            future.completeExceptionally(e);
+        }
+        boolean cancelled;
+        synchronized (this) {
+            cancelled = job.cancelled;
+            if (!cancelled) {
+                job.running.add(future);
+            }
+        }
+        if (cancelled) {
+            future.cancel(false);
+        }
+        CompletableFuture<RelayPage> launched = future;
+        future.whenComplete((relayPage, e) -> onPageDone(job, page, launched, relayPage, e));
+    }
+
+    private void onPageDone(RelayJob job, int page, CompletableFuture<RelayPage> future, RelayPage relayPage, Throwable e) {
+        fetchedPages.incrementAndGet();
+        Throwable failure = null;
+        boolean finished;
+        synchronized (this) {
+            job.running.remove(future);
+            job.inFlight--;
+            inFlight--;
+            if (e != null) {
+                if (page == 1) {
+                    // 第1页失败时无法知道总页数, 整个任务失败
+                    failure = e instanceof CompletionException ? e.getCause() : e;
+                    job.stop();
+                } else if (!job.cancelled) {
+                    log.error("get relay exception. mid: {} page: {} error is ", job.mid, page, e);
+                }
+            } else {
+                job.results.put(page, relayPage.getUsers());
+                job.relayerCount += relayPage.getUsers().size();
+                if (page == 1) {
+                    planPages(job, relayPage.getTotalPage());
+                }
+                if (targetRelayers > 0 && job.relayerCount >= targetRelayers && !job.pages.isEmpty()) {
+                    skippedPages.addAndGet(job.pages.size());
+                    stoppedJobs.incrementAndGet();
+                    job.stop();
+                }
+            }
+            enqueue(job);
+            finished = !job.finished && job.inFlight == 0 && job.pages.isEmpty();
+            if (finished) {
+                job.finished = true;
+                activeJobs--;
+            }
+        }
+        if (finished) {
+            if (failure != null) {
+                job.result.completeExceptionally(failure);
+            } else {
+                List<RelayUser> users = new ArrayList<>(job.relayerCount);
+                job.results.values().forEach(users::addAll);
+                job.result.complete(users);
+            }
+        }
+        dispatch();
+    }
+
+    /**
+     * 第2页到最后一页中选出至多 maxPagesPerPost - 1 页
+     */
+    private void planPages(RelayJob job, int totalPage) {
+        int cap = maxPagesPerPost <= 0 ? totalPage : Math.min(totalPage, maxPagesPerPost);
+        int count = cap - 1;
+        if (count <= 0) {
+            skippedPages.addAndGet(Math.max(0, totalPage - 1));
+            return;
+        }
+        skippedPages.addAndGet(totalPage - cap);
+        if (!sample || cap == totalPage) {
+            for (int page = 2; page <= cap; page++) {
+                job.pages.add(page);
+            }
+            return;
+        }
+        for (int i = 0; i < count; i++) {
+            job.pages.add(2 + (int) ((long) i * (totalPage - 1) / count));
+        }
+    }
+
+    /**
+     * 调用时必须持有锁
+     */
+    private void enqueue(RelayJob job) {
+        if (!job.queued && !job.pages.isEmpty() && job.inFlight < perPostParallelism) {
+            job.queued = true;
+            ready.addLast(job);
+        }
+    }
+
+    private static class RelayJob {
+
+        private final String mid;
+
+        private final RelayPageFetcher fetcher;
+
+        private final Queue<Integer> pages = new ArrayDeque<>();
+
+        private final Map<Integer, List<RelayUser>> results = new TreeMap<>();
+
+        private final CompletableFuture<List<RelayUser>> result = new CompletableFuture<>();
+
+        /**
+         * 已发出还没有完成的转发页请求, 任务取消时一起取消
+         */
+        private final Set<CompletableFuture<RelayPage>> running = new HashSet<>();
+
+        private int inFlight;
+
+        private int relayerCount;
+
+        private boolean queued;
+
+        private boolean finished;
+
+        private boolean cancelled;
+
+        private RelayJob(String mid, RelayPageFetcher fetcher) {
+            this.mid = mid;
+            this.fetcher = fetcher;
+        }
+
+        /**
+         * 不再发出新的请求, 已发出的请求完成后任务结束
+         */
+        private void stop() {
+            pages.clear();
+        }
+    }
+}
@@ -0,0 +1,14 @@
+package com.xupt.crawler.service.relay;
+
+import com.xupt.crawler.service.model.RelayPage;
+
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * 获取某条微博的一页转发列表, 页码从1开始
+ */
+@FunctionalInterface
+public interface RelayPageFetcher {
+
+    CompletableFuture<RelayPage> fetch(int page);
+}
@@ -0,0 +1,27 @@
+package com.xupt.crawler.service.relay;
+
+import com.xupt.crawler.service.model.RelayPage;
+
+/**
+ * 已抓取转发页的存储, 断点续抓时已有的页不再请求
+ */
+public interface RelayPageStore {
+
+    RelayPageStore NONE = new RelayPageStore() {
+        @Override
+        public RelayPage get(String mid, int page) {
+            return null;
+        }
+
+        @Override
+        public void put(String mid, int page, RelayPage relayPage) {
+        }
+    };
+
+    /**
+     * 没有时返回null
+     */
+    RelayPage get(String mid, int page);
+
+    void put(String mid, int page, RelayPage relayPage);
+}
@@ -7,12 +7,15 @@ import org.apache.commons.csv.CSVFormat;
 import org.apache.commons.csv.CSVParser;
 import org.apache.commons.csv.CSVRecord;
 import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.output.CloseShieldOutputStream;
 import org.apache.commons.lang3.StringUtils;
 import org.springframework.format.annotation.DateTimeFormat;
 
+import javax.servlet.http.HttpServletResponse;
 import java.io.*;
 import java.lang.reflect.Field;
 import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
 import java.text.NumberFormat;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
@@ -24,12 +27,14 @@ import java.util.*;
 import java.util.function.Function;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
+import java.util.zip.GZIPOutputStream;
 
 @Slf4j
 public abstract class CSVUtils {
 
     private static final String DEFAULT_LOCAL_DATE_FORMAT = "yyyy-MM-dd";
     private static final String DEFAULT_DATE_FORMAT = "yyyyMMdd hhMMss";
+    private static final String LINE_SEPARATOR = "\r\n";
 
     @Data
     @Builder
@@ -271,15 +276,9 @@ public abstract class CSVUtils {
     }
 
     private static <T> void exportCSV(String[] headers, Collection<T> dataSet, OutputStream out, boolean withHeaders) {
-        try (BufferedWriter bw = new BufferedWriter(new OutputStreamWriter(out))) {
+        try (BufferedWriter bw = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8))) {
             if (withHeaders && headers != null) {
-                for (int i = 0; i < headers.length; i++) {
-                    bw.append(headers[i]);
-                    if (i < headers.length - 1) {
-                        bw.append(",");
-                    }
-                }
-                bw.newLine();
+                writeHeaders(bw, headers);
             }
             if (dataSet.isEmpty()) {
                 return;
@@ -289,19 +288,7 @@ public abstract class CSVUtils {
             CSVFile csvFile = data.getClass().getAnnotation(CSVFile.class);
             for (T row : dataSet) {
                 try {
-                    for (int i = 0; i < fieldList.size(); i++) {
-                        Field field = fieldList.get(i);
-                        setCellValue(bw, field, row);
-                        if (i < fieldList.size() - 1) {
-                            bw.append(",");
-                        }
-                    }
-                    if (csvFile != null) {
-                        for (int i = 0; i < csvFile.appendBlankSize(); ++i) {
-                            bw.append(",");
-                        }
-                    }
-                    bw.newLine();
+                    writeRow(bw, fieldList, csvFile, row);
                 } catch (IllegalArgumentException e) {
                     throw e;
                 } catch (Exception e) {
@@ -313,7 +300,121 @@ public abstract class CSVUtils {
         }
     }
 
-    private static <T> void setCellValue(BufferedWriter bw, Field field, T row) throws Exception {
+    /**
+     * 分批写出CSV, 每批写完立即flush, 适合边抓取边下载的场景
+     * 写出失败(如客户端断开)时抛出异常, 由调用方停止后续抓取
+     */
+    public static <T> void exportCSV(String[] headers, Class<T> itemClass, Iterator<? extends Collection<? extends T>> batches,
+                                     OutputStream out, ExportParam param) throws IOException {
+        List<Field> fieldList = sortFieldByAnnotation(itemClass, headers);
+        CSVFile csvFile = itemClass.getAnnotation(CSVFile.class);
+        try (BufferedWriter bw = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8))) {
+            if (param.isWithBomHead()) {
+                bw.write('\uFEFF');
+            }
+            if (param.isWithHeaders()) {
+                writeHeaders(bw, headers);
+            }
+            bw.flush();
+            while (batches.hasNext()) {
+                for (T row : batches.next()) {
+                    try {
+                        writeRow(bw, fieldList, csvFile, row);
+                    } catch (IllegalArgumentException | IOException e) {
+                        throw e;
+                    } catch (Exception e) {
+                        log.error(e.toString(), e);
+                    }
+                }
+                bw.flush();
+            }
+        }
+    }
+
+    /**
+     * 设置CSV附件下载的响应头, 由调用方自行写出内容(如异步写出)
+     */
+    public static void prepareDownload(HttpServletResponse response, String fileName, boolean gzip) {
+        response.setHeader("Pragma", "private");
+        response.setHeader("Cache-Control", "private, must-revalidate");
+        response.setHeader("Content-Disposition", "attachment; filename=\"" + fileName + ".csv\"");
+        response.setContentType("text/csv;charset=utf-8");
+        if (gzip) {
+            response.setHeader("Content-Encoding", "gzip");
+        }
+    }
+
+    /**
+     * 写出全部列, 带BOM头和列名, out 不会被关闭
+     *
+     * @param gzip 是否gzip压缩, 需与 {@link #prepareDownload} 一致
+     */
+    public static <T> void exportCSV(OutputStream out, Class<T> itemClass, Iterator<? extends Collection<? extends T>> batches,
+                                     boolean gzip) throws IOException {
+        OutputStream shield = new CloseShieldOutputStream(out);
+        // syncFlush 保证每批flush时压缩数据也被发送出去
+        OutputStream target = gzip ? new GZIPOutputStream(shield, true) : shield;
+        exportCSV(headers(itemClass), itemClass, batches, target, ExportParam.of(true, true));
+    }
+
+    /**
+     * 按 {@link CSVCell#order()} 排序的全部列名
+     */
+    public static String[] headers(Class<?> clazz) {
+        return Stream.of(clazz.getDeclaredFields())
+                .filter(f -> f.getAnnotation(CSVCell.class) != null)
+                .map(f -> f.getAnnotation(CSVCell.class))
+                .sorted(Comparator.comparingInt(CSVCell::order))
+                .map(CSVCell::value)
+                .toArray(String[]::new);
+    }
+
+    private static void writeHeaders(BufferedWriter bw, String[] headers) throws IOException {
+        for (int i = 0; i < headers.length; i++) {
+            bw.append(escape(headers[i]));
+            if (i < headers.length - 1) {
+                bw.append(",");
+            }
+        }
+        bw.append(LINE_SEPARATOR);
+    }
+
+    private static <T> void writeRow(BufferedWriter bw, List<Field> fieldList, CSVFile csvFile, T row) throws Exception {
+        // 先拼好整行再写出, 避免单元格转换失败时留下半行数据
+        StringBuilder line = new StringBuilder();
+        for (int i = 0; i < fieldList.size(); i++) {
+            line.append(escape(getCellValue(fieldList.get(i), row)));
+            if (i < fieldList.size() - 1) {
+                line.append(",");
+            }
+        }
+        if (csvFile != null) {
+            for (int i = 0; i < csvFile.appendBlankSize(); ++i) {
+                line.append(",");
+            }
+        }
+        bw.append(line).append(LINE_SEPARATOR);
+    }
+
+    /**
+     * RFC 4180: 包含逗号、双引号、换行的值用双引号包裹, 值中的双引号写成两个双引号
+     */
+    static String escape(String value) {
+        if (value == null || value.isEmpty()) {
+            return value == null ? "" : value;
+        }
+        boolean quote = false;
+        for (int i = 0; i < value.length() && !quote; i++) {
+            char c = value.charAt(i);
+            quote = c == ',' || c == '"' || c == '\r' || c == '\n';
+        }
+        if (!quote) {
+            return value;
+        }
+        return '"' + value.replace("\"", "\"\"") + '"';
+    }
+
+    private static <T> String getCellValue(Field field, T row) throws Exception {
         field.setAccessible(true);
         Object value = field.get(row);
         String textValue;
@@ -344,7 +445,7 @@ public abstract class CSVUtils {
                 }
             }
         }
-        bw.append(textValue);
+        return textValue;
     }
 
     private static DateTimeFormatter getFormatter(Field field, DateTimeFormatter defaultFormatter) {
@@ -1,69 +1,206 @@
 package com.xupt.crawler.utils;
 
-import com.typesafe.config.Config;
-import com.typesafe.config.ConfigFactory;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.xupt.crawler.utils.http.AdaptiveConcurrencyLimiter;
+import com.xupt.crawler.utils.http.CircuitBreaker;
+import com.xupt.crawler.utils.http.HostBulkhead;
+import com.xupt.crawler.utils.http.RateLimiter;
+import com.xupt.crawler.utils.http.RetryBudget;
+import com.xupt.crawler.utils.http.RetryPolicy;
+import com.xupt.crawler.utils.http.RetryingCall;
+import com.xupt.crawler.utils.http.TokenBucket;
 import lombok.extern.slf4j.Slf4j;
-import okhttp3.Interceptor;
+import okhttp3.ConnectionPool;
+import okhttp3.Dispatcher;
+import okhttp3.HttpUrl;
 import okhttp3.OkHttpClient;
 import okhttp3.Request;
-import okhttp3.Response;
+import org.springframework.core.env.PropertyResolver;
 
-import java.io.IOException;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 
+/**
+ * 按host隔离的http client, 配置来自Spring环境(application.yml的httpClient.xxx),
+ * 由 {@link com.xupt.crawler.config.HttpClientConfig} 在容器启动时调用 {@link #init} 初始化
+ */
+@Slf4j
 public class OkHttpClients {
 
-    private static final Config CONFIG = ConfigFactory.load();
+    private static PropertyResolver config;
 
-    private static final int CONNECT_TIMEOUT;
+    private static int connectTimeout;
 
-    private static final int WRITE_TIMEOUT;
+    private static int writeTimeout;
 
-    private static final int READ_TIMEOUT;
+    private static int readTimeout;
 
-    private static final int RETRY_NUM;
+    private static int retryNum;
 
-    static {
-        CONNECT_TIMEOUT = CONFIG.hasPath("httpClient.connectTimeout.milliseconds") ? CONFIG.getInt("httpClient.connectTimeout.milliseconds") : 10000;
-        WRITE_TIMEOUT = CONFIG.hasPath("httpClient.writeTimeout.milliseconds") ? CONFIG.getInt("httpClient.writeTimeout.milliseconds") : 10000;
-        READ_TIMEOUT = CONFIG.hasPath("httpClient.readTimeout.milliseconds") ? CONFIG.getInt("httpClient.readTimeout.milliseconds") : 10000;
-        RETRY_NUM = CONFIG.hasPath("httpClient.retryNum") ? CONFIG.getInt("httpClient.retryNum") : 2;
+    /**
+     * 全局重试预算, 所有隔离舱共享
+     */
+    private static RetryBudget retryBudget;
+
+    /**
+     * 按host划分的熔断器, profile和relay同属weibo.com, 共享同一个熔断器
+     */
+    private static final Map<String, CircuitBreaker> CIRCUIT_BREAKERS = new ConcurrentHashMap<>();
+
+    private static int circuitBreakerFailureThreshold;
+
+    private static int circuitBreakerOpenMillis;
+
+    private static final Map<HostBulkhead, RateLimiter> RATE_LIMITERS = new EnumMap<>(HostBulkhead.class);
+
+    private static final Map<HostBulkhead, RetryPolicy> RETRY_POLICIES = new EnumMap<>(HostBulkhead.class);
+
+    /**
+     * 重试退避、令牌等待和限流超时的定时器, 只负责enqueue, 一个线程即可
+     */
+    private static final ScheduledExecutorService HTTP_TIMER = Executors.newSingleThreadScheduledExecutor(
+            new ThreadFactoryBuilder().setNameFormat("okhttp-timer-%d").setDaemon(true).build());
+
+    private static volatile Map<HostBulkhead, OkHttpClient> bulkheadClients;
+
+    public static synchronized void init(PropertyResolver resolver) {
+        if (bulkheadClients != null) {
+            return;
+        }
+        config = resolver;
+        connectTimeout = getInt("httpClient.connectTimeout.milliseconds", 10000);
+        writeTimeout = getInt("httpClient.writeTimeout.milliseconds", 10000);
+        readTimeout = getInt("httpClient.readTimeout.milliseconds", 10000);
+        retryNum = getInt("httpClient.retryNum", 2);
+        retryBudget = new RetryBudget(
+                getDouble("httpClient.retryBudget.ratio", 0.1),
+                getInt("httpClient.retryBudget.minRetriesPerSecond", 2),
+                getInt("httpClient.retryBudget.window.seconds", 10));
+        circuitBreakerFailureThreshold = getInt("httpClient.circuitBreaker.failureThreshold", 10);
+        circuitBreakerOpenMillis = getInt("httpClient.circuitBreaker.open.milliseconds", 30000);
+        Map<HostBulkhead, OkHttpClient> clients = new EnumMap<>(HostBulkhead.class);
+        for (HostBulkhead bulkhead : HostBulkhead.values()) {
+            clients.put(bulkhead, buildClient(bulkhead));
+        }
+        bulkheadClients = clients;
+    }
+
+    public static CircuitBreaker getCircuitBreaker(String host) {
+        return CIRCUIT_BREAKERS.computeIfAbsent(host,
+                h -> new CircuitBreaker(h, circuitBreakerFailureThreshold, circuitBreakerOpenMillis));
     }
 
-    private static final OkHttpClient OK_HTTP_CLIENT = new OkHttpClient.Builder()
-            .connectTimeout(CONNECT_TIMEOUT, TimeUnit.MILLISECONDS)
-            .writeTimeout(WRITE_TIMEOUT, TimeUnit.MILLISECONDS)
-            .readTimeout(READ_TIMEOUT, TimeUnit.MILLISECONDS)
-            .addInterceptor(new RetryInterceptor(RETRY_NUM))
-            .build();
+    /**
+     * 隔离舱当前的自适应并发上限
+     */
+    public static AdaptiveConcurrencyLimiter getConcurrencyLimiter(HostBulkhead bulkhead) {
+        return RATE_LIMITERS.get(bulkhead).getConcurrencyLimiter();
+    }
 
     public static OkHttpClient getInstance() {
-        return OK_HTTP_CLIENT;
+        return getInstance(HostBulkhead.DEFAULT);
     }
 
     /**
-     * 重试拦截器
+     * 根据url所属的隔离舱返回对应的client
      */
-    @Slf4j
-    static class RetryInterceptor implements Interceptor {
+    public static OkHttpClient getInstance(String url) {
+        return getInstance(HostBulkhead.of(HttpUrl.parse(url)));
+    }
 
-        private final int retryNum;
+    /**
+     * 按url所属的隔离舱创建一次带重试的异步请求
+     */
+    public static RetryingCall newCall(Request request) {
+        HostBulkhead bulkhead = HostBulkhead.of(request.url());
+        return new RetryingCall(getInstance(bulkhead), request, RETRY_POLICIES.get(bulkhead), retryBudget,
+                getCircuitBreaker(request.url().host()), RATE_LIMITERS.get(bulkhead), HTTP_TIMER);
+    }
 
-        public RetryInterceptor(int retryNum) {
-            this.retryNum = retryNum;
+    public static OkHttpClient getInstance(HostBulkhead bulkhead) {
+        if (bulkheadClients == null) {
+            throw new IllegalStateException("http clients not initialized");
         }
+        return bulkheadClients.get(bulkhead);
+    }
 
-        @Override
-        public Response intercept(Chain chain) throws IOException {
-            Request request = chain.request();
-            Response response = chain.proceed(request);
-            int requestNum = 1;
-            while (!response.isSuccessful() && requestNum <= retryNum) {
-                log.info("request failed, retrying. retryNum:{}", requestNum);
-                response = chain.proceed(request);
-                requestNum++;
-            }
-            return response;
-        }
+    /**
+     * 每个隔离舱单独的连接池、Dispatcher和超时时间,
+     * 配置路径为 httpClient.hosts.{search|profile|relay|passport|default}.xxx, 未配置时使用 httpClient.xxx
+     */
+    private static OkHttpClient buildClient(HostBulkhead bulkhead) {
+        int connectTimeout = getHostInt(bulkhead, "connectTimeout.milliseconds", OkHttpClients.connectTimeout);
+        int writeTimeout = getHostInt(bulkhead, "writeTimeout.milliseconds", OkHttpClients.writeTimeout);
+        int readTimeout = getHostInt(bulkhead, "readTimeout.milliseconds", OkHttpClients.readTimeout);
+        int retryNum = getHostInt(bulkhead, "retryNum", OkHttpClients.retryNum);
+        int maxIdleConnections = getHostInt(bulkhead, "maxIdleConnections", 5);
+        int keepAlive = getHostInt(bulkhead, "keepAlive.milliseconds", 300000);
+        int maxRequests = getHostInt(bulkhead, "maxRequests", 64);
+        int maxRequestsPerHost = getHostInt(bulkhead, "maxRequestsPerHost", 5);
+        RetryPolicy retryPolicy = new RetryPolicy(retryNum,
+                getHostInt(bulkhead, "retry.baseDelay.milliseconds", 200),
+                getHostInt(bulkhead, "retry.maxDelay.milliseconds", 5000),
+                getHostDouble(bulkhead, "retry.multiplier", 2.0));
+        RETRY_POLICIES.put(bulkhead, retryPolicy);
+
+        ThreadPoolExecutor dispatcherExecutor = new ThreadPoolExecutor(0, Integer.MAX_VALUE, 60, TimeUnit.SECONDS,
+                new SynchronousQueue<>(), new ThreadFactoryBuilder()
+                .setNameFormat("okhttp-" + bulkhead.getConfigName() + "-%d")
+                .setDaemon(true)
+                .build());
+        Dispatcher dispatcher = new Dispatcher(dispatcherExecutor);
+        dispatcher.setMaxRequests(maxRequests);
+        dispatcher.setMaxRequestsPerHost(maxRequestsPerHost);
+
+        log.info("init http client bulkhead: {}, maxIdleConnections: {}, keepAlive: {}ms, maxRequests: {}, maxRequestsPerHost: {}, "
+                        + "connectTimeout: {}ms, writeTimeout: {}ms, readTimeout: {}ms, retryNum: {}",
+                bulkhead, maxIdleConnections, keepAlive, maxRequests, maxRequestsPerHost,
+                connectTimeout, writeTimeout, readTimeout, retryNum);
+        TokenBucket tokenBucket = new TokenBucket(
+                getHostDouble(bulkhead, "rateLimit.permitsPerSecond", 0),
+                getHostDouble(bulkhead, "rateLimit.burst", 1));
+        AdaptiveConcurrencyLimiter concurrencyLimiter = new AdaptiveConcurrencyLimiter(bulkhead.getConfigName(),
+                getHostInt(bulkhead, "concurrency.initial", 4),
+                getHostInt(bulkhead, "concurrency.min", 1),
+                getHostInt(bulkhead, "concurrency.max", maxRequestsPerHost),
+                getHostDouble(bulkhead, "concurrency.backoffRatio", 0.5),
+                getHostDouble(bulkhead, "concurrency.latencyTolerance", 2.5),
+                getHostInt(bulkhead, "concurrency.minSpike.milliseconds", 1000),
+                getHostInt(bulkhead, "concurrency.decreaseInterval.milliseconds", 1000));
+        RATE_LIMITERS.put(bulkhead, new RateLimiter(bulkhead.getConfigName(), tokenBucket, concurrencyLimiter,
+                getHostInt(bulkhead, "rateLimit.acquireTimeout.milliseconds", 60000), HTTP_TIMER));
+
+        return new OkHttpClient.Builder()
+                .connectTimeout(connectTimeout, TimeUnit.MILLISECONDS)
+                .writeTimeout(writeTimeout, TimeUnit.MILLISECONDS)
+                .readTimeout(readTimeout, TimeUnit.MILLISECONDS)
+                .connectionPool(new ConnectionPool(maxIdleConnections, keepAlive, TimeUnit.MILLISECONDS))
+                // 限流和重试都由 RetryingCall 在enqueue之前完成, Dispatcher里只有真正在发送的请求
+                .dispatcher(dispatcher)
+                .build();
+    }
+
+    private static int getInt(String path, int defaultValue) {
+        return config.getProperty(path, Integer.class, defaultValue);
+    }
+
+    private static double getDouble(String path, double defaultValue) {
+        return config.getProperty(path, Double.class, defaultValue);
+    }
+
+    private static double getHostDouble(HostBulkhead bulkhead, String key, double defaultValue) {
+        return config.getProperty("httpClient.hosts." + bulkhead.getConfigName() + "." + key, Double.class,
+                getDouble("httpClient." + key, defaultValue));
+    }
+
+    private static int getHostInt(HostBulkhead bulkhead, String key, int defaultValue) {
+        return config.getProperty("httpClient.hosts." + bulkhead.getConfigName() + "." + key, Integer.class,
+                getInt("httpClient." + key, defaultValue));
     }
 }
@@ -0,0 +1,191 @@
+package com.xupt.crawler.utils.concurrent;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * 一次请求内的扇出/汇总: 每个请求创建自己的scope, 结果只属于本scope, 按fork的顺序返回.
+ * 同时运行的任务数不超过maxParallelism, 其余任务排队, 前面的任务完成后在共享的executor上启动.
+ * 任务本身是异步的, 等待期间不占用线程, 因此所有scope可以共用一个executor而不会互相阻塞.
+ * <p>
+ * 没有fallback的任务失败时整个scope失败并取消其他任务; 取消 {@link #join()} 返回的future也会取消所有任务.
+ * 取消只作用于任务返回的future, 任务需要用 {@link Futures} 组合各阶段, 使取消传回底层的请求
+ */
+public class FanOutScope<T> {
+
+    private final Executor executor;
+
+    private final int maxParallelism;
+
+    private final List<CompletableFuture<T>> slots = new ArrayList<>();
+
+    private final Queue<Task<T>> pending = new ArrayDeque<>();
+
+    private final Set<CompletableFuture<T>> running = ConcurrentHashMap.newKeySet();
+
+    private final CompletableFuture<List<T>> result = new CompletableFuture<>();
+
+    private int active;
+
+    private boolean joined;
+
+    private volatile boolean cancelled;
+
+    public FanOutScope(Executor executor, int maxParallelism) {
+        if (maxParallelism < 1) {
+            throw new IllegalArgumentException(String.format("maxParallelism must be positive, maxParallelism: %s", maxParallelism));
+        }
+        this.executor = executor;
+        this.maxParallelism = maxParallelism;
+        result.whenComplete((list, e) -> {
+            if (result.isCancelled()) {
+                cancel();
+            }
+        });
+    }
+
+    public void fork(Supplier<CompletableFuture<T>> supplier) {
+        fork(supplier, null);
+    }
+
+    /**
+     * @param fallback 任务失败时用它的返回值作为该任务的结果, 不影响其他任务
+     */
+    public void fork(Supplier<CompletableFuture<T>> supplier, Function<Throwable, T> fallback) {
+        Task<T> task = new Task<>(supplier, fallback, new CompletableFuture<>());
+        synchronized (this) {
+            if (joined) {
+                throw new IllegalStateException("fan-out scope already joined");
+            }
+            slots.add(task.slot);
+            if (cancelled) {
+                task.slot.cancel(false);
+                return;
+            }
+            if (active >= maxParallelism) {
+                pending.add(task);
+                return;
+            }
+            active++;
+        }
+        executor.execute(() -> launch(task));
+    }
+
+    /**
+     * 不再接受新任务, 返回所有任务按fork顺序排列的结果
+     */
+    public CompletableFuture<List<T>> join() {
+        List<CompletableFuture<T>> joinedSlots;
+        synchronized (this) {
+            joined = true;
+            joinedSlots = new ArrayList<>(slots);
+        }
+        CompletableFuture.allOf(joinedSlots.toArray(new CompletableFuture[0])).whenComplete((v, e) -> {
+            if (e != null) {
+                result.completeExceptionally(e);
+                return;
+            }
+            List<T> values = new ArrayList<>(joinedSlots.size());
+            for (CompletableFuture<T> slot : joinedSlots) {
+                values.add(slot.join());
+            }
+            result.complete(values);
+        });
+        return result;
+    }
+
+    /**
+     * 排队中的任务不再启动, 运行中的任务返回的future被取消
+     */
+    public void cancel() {
+        List<Task<T>> drained;
+        synchronized (this) {
+            cancelled = true;
+            drained = new ArrayList<>(pending);
+            pending.clear();
+        }
+        for (Task<T> task : drained) {
+            task.slot.cancel(false);
+        }
+        for (CompletableFuture<T> future : running) {
+            future.cancel(false);
+        }
+    }
+
+    private void launch(Task<T> task) {
+        if (cancelled) {
+            task.slot.cancel(false);
+            release();
+            return;
+        }
+        CompletableFuture<T> future;
+        try {
+            future = task.supplier.get();
+        } catch (Throwable e) {
+            future = new CompletableFuture<>();
+            future.completeExceptionally(e);
+        }
+        running.add(future);
+        if (cancelled) {
+            future.cancel(false);
+        }
+        CompletableFuture<T> started = future;
+        future.whenComplete((value, e) -> {
+            running.remove(started);
+            if (e == null) {
+                task.slot.complete(value);
+            } else if (task.fallback != null && !cancelled) {
+                try {
+                    task.slot.complete(task.fallback.apply(e instanceof CompletionException ? e.getCause() : e));
+                } catch (Throwable fallbackException) {
+                    fail(task.slot, fallbackException);
+                }
+            } else {
+                fail(task.slot, e);
+            }
+            release();
+        });
+    }
+
+    private void fail(CompletableFuture<T> slot, Throwable e) {
+        slot.completeExceptionally(e);
+        result.completeExceptionally(e);
+        cancel();
+    }
+
+    private void release() {
+        Task<T> next;
+        synchronized (this) {
+            next = pending.poll();
+            if (next == null) {
+                active--;
+                return;
+            }
+        }
+        executor.execute(() -> launch(next));
+    }
+
+    private static class Task<T> {
+
+        private final Supplier<CompletableFuture<T>> supplier;
+
+        private final Function<Throwable, T> fallback;
+
+        private final CompletableFuture<T> slot;
+
+        private Task(Supplier<CompletableFuture<T>> supplier, Function<Throwable, T> fallback, CompletableFuture<T> slot) {
+            this.supplier = supplier;
+            this.fallback = fallback;
+            this.slot = slot;
+        }
+    }
+}
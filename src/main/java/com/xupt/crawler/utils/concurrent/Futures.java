@@ -0,0 +1,71 @@
+package com.xupt.crawler.utils.concurrent;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Function;
+
+/**
+ * CompletableFuture的取消只作用于被取消的那个future, 不会传给它所依赖的上游.
+ * 这里的方法把下游的取消传回上游, 使取消一个任务时底层请求(OkHttp的Call、转发任务)也随之取消
+ */
+public final class Futures {
+
+    private Futures() {
+    }
+
+    /**
+     * downstream被取消时同时取消upstreams中还没有完成的future
+     */
+    public static <T> CompletableFuture<T> cancelling(CompletableFuture<T> downstream, Future<?>... upstreams) {
+        downstream.whenComplete((value, e) -> {
+            if (downstream.isCancelled()) {
+                for (Future<?> upstream : upstreams) {
+                    upstream.cancel(false);
+                }
+            }
+        });
+        return downstream;
+    }
+
+    /**
+     * 与 {@link CompletableFuture#thenCompose} 相同, 返回的future被取消时取消当前正在进行的阶段:
+     * source还没有完成时取消source, 否则取消fn返回的future
+     */
+    public static <T, U> CompletableFuture<U> thenCompose(CompletableFuture<T> source,
+                                                          Function<? super T, ? extends CompletableFuture<U>> fn) {
+        CompletableFuture<U> result = new CompletableFuture<>();
+        AtomicReference<Future<?>> current = new AtomicReference<>(source);
+        source.whenComplete((value, e) -> {
+            if (e != null) {
+                result.completeExceptionally(e);
+                return;
+            }
+            CompletableFuture<U> next;
+            try {
+                next = fn.apply(value);
+            } catch (Throwable fnException) {
+                result.completeExceptionally(fnException);
+                return;
+            }
+            current.set(next);
+            if (result.isCancelled()) {
+                next.cancel(false);
+                return;
+            }
+            next.whenComplete((nextValue, nextException) -> {
+                if (nextException != null) {
+                    result.completeExceptionally(nextException);
+                } else {
+                    result.complete(nextValue);
+                }
+            });
+        });
+        result.whenComplete((value, e) -> {
+            if (result.isCancelled()) {
+                current.get().cancel(false);
+            }
+        });
+        return result;
+    }
+}
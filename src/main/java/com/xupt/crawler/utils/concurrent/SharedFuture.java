@@ -0,0 +1,49 @@
+package com.xupt.crawler.utils.concurrent;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Function;
+
+/**
+ * 多个调用方共享的future: 每个调用方通过 {@link #subscribe()} 拿到独立的future,
+ * 某个调用方取消不影响其他调用方; 所有还在等待的调用方都取消后才取消底层的future
+ */
+public class SharedFuture<T> {
+
+    private final CompletableFuture<T> source;
+
+    private int waiting;
+
+    public SharedFuture(CompletableFuture<T> source) {
+        this.source = source;
+    }
+
+    /**
+     * @return 底层future已被取消时返回null, 调用方需要重新发起
+     */
+    public synchronized CompletableFuture<T> subscribe() {
+        if (source.isCancelled()) {
+            return null;
+        }
+        CompletableFuture<T> copy = source.thenApply(Function.identity());
+        if (source.isDone()) {
+            return copy;
+        }
+        waiting++;
+        copy.whenComplete((value, e) -> {
+            if (copy.isCancelled()) {
+                unsubscribe();
+            }
+        });
+        return copy;
+    }
+
+    public CompletableFuture<T> getSource() {
+        return source;
+    }
+
+    private synchronized void unsubscribe() {
+        if (--waiting <= 0 && !source.isDone()) {
+            source.cancel(false);
+        }
+    }
+}
@@ -0,0 +1,70 @@
+package com.xupt.crawler.utils.concurrent;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * 合并相同key的并发调用: 同一时刻同一个key只有一次真正的执行, 其他调用共享其结果.
+ * 执行结束后立即移除, 不做任何缓存, 因此不会返回过期数据.
+ * 每个调用方拿到独立的future, 所有调用方都取消后才取消真正的执行
+ */
+public class SingleFlight<K, V> {
+
+    private final ConcurrentMap<K, SharedFuture<V>> inFlight = new ConcurrentHashMap<>();
+
+    private final AtomicLong executedCount = new AtomicLong();
+
+    private final AtomicLong sharedCount = new AtomicLong();
+
+    public CompletableFuture<V> execute(K key, Supplier<CompletableFuture<V>> supplier) {
+        while (true) {
+            CompletableFuture<V> promise = new CompletableFuture<>();
+            SharedFuture<V> shared = new SharedFuture<>(promise);
+            SharedFuture<V> existing = inFlight.putIfAbsent(key, shared);
+            if (existing != null) {
+                CompletableFuture<V> copy = existing.subscribe();
+                if (copy != null) {
+                    sharedCount.incrementAndGet();
+                    return copy;
+                }
+                // 所有调用方都已取消, 重新执行
+                inFlight.remove(key, existing);
+                continue;
+            }
+            executedCount.incrementAndGet();
+            CompletableFuture<V> copy = shared.subscribe();
+            try {
+                CompletableFuture<V> execution = supplier.get();
+                Futures.cancelling(promise, execution);
+                execution.whenComplete((value, e) -> {
+                    // 先移除再完成, 保证完成之后的新调用会重新执行
+                    inFlight.remove(key, shared);
+                    if (e != null) {
+                        promise.completeExceptionally(e);
+                    } else {
+                        promise.complete(value);
+                    }
+                });
+            } catch (Throwable e) {
+                inFlight.remove(key, shared);
+                promise.completeExceptionally(e);
+            }
+            return copy;
+        }
+    }
+
+    public long getExecutedCount() {
+        return executedCount.get();
+    }
+
+    public long getSharedCount() {
+        return sharedCount.get();
+    }
+
+    public int getInFlightCount() {
+        return inFlight.size();
+    }
+}
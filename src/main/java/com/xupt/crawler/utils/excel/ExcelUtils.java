@@ -10,6 +10,7 @@ import org.apache.commons.collections4.CollectionUtils;
 import org.apache.commons.lang3.StringUtils;
 import org.apache.poi.hssf.usermodel.HSSFWorkbook;
 import org.apache.poi.ss.usermodel.*;
+import org.apache.poi.xssf.streaming.SXSSFWorkbook;
 import org.apache.poi.xssf.usermodel.XSSFWorkbook;
 
 import javax.annotation.Nonnull;
@@ -144,6 +145,44 @@ public abstract class ExcelUtils {
         writeSheets(response, Lists.newArrayList(sheetData), fileName);
     }
 
+    /**
+     * 设置xlsx附件下载的响应头, 由调用方自行写出内容(如异步写出)
+     */
+    public static void prepareDownload(HttpServletResponse response, String fileName) {
+        response.setHeader("Pragma", "private");
+        response.setHeader("Cache-Control", "private, must-revalidate");
+        response.setHeader("Content-Disposition", "attachment; filename=\"" + fileName + ".xlsx\"");
+        response.setContentType("application/vnd.openxmlformats-officedocument.spreadsheetml.sheet");
+    }
+
+    /**
+     * 流式写入: 数据按批次读取, 内存中只保留最近rowWindow行, 其余行压缩后写入临时文件.
+     * xlsx是zip格式, 文件内容只能在最后一次性输出
+     */
+    public static <T> void write(OutputStream outputStream, Class<T> itemClass, Iterator<? extends Collection<? extends T>> batches, int rowWindow) throws IOException {
+        SXSSFWorkbook workbook = new SXSSFWorkbook(rowWindow);
+        workbook.setCompressTempFiles(true);
+        try {
+            Sheet sheet = workbook.createSheet();
+            List<ColumnDesc> columnDescs = sortColumnDescByOrder(itemClass);
+            setColumnStyle(workbook, sheet, columnDescs);
+            writeHeader(sheet, columnDescs);
+            int nextRowIndex = 1;
+            while (batches.hasNext()) {
+                Collection<? extends T> batch = batches.next();
+                if (CollectionUtils.isEmpty(batch)) {
+                    continue;
+                }
+                Cell endCell = writeNonBasicDataList(batch, sheet.createRow(nextRowIndex).createCell(0), columnDescs);
+                nextRowIndex = endCell.getRowIndex() + 1;
+            }
+            workbook.write(outputStream);
+        } finally {
+            workbook.dispose();
+            workbook.close();
+        }
+    }
+
     public static void writeSheets(HttpServletResponse response, List<SheetData> sheetDatas, String fileName) {
         response.setHeader("Pragma", "private");
         response.setHeader("Cache-Control", "private, must-revalidate");
@@ -400,11 +439,9 @@ public abstract class ExcelUtils {
     private static Cell writeField(ColumnDesc columnDesc, Cell startCell, @Nullable Object obj) {
         Object field = invokeGetter(columnDesc, obj);
         if (columnDesc.isCollection()) {
-            Iterable datas = null;
+            Iterable<?> datas;
             if (field == null) {
-                ArrayList list = new ArrayList();
-                list.add(null);
-                datas = list;
+                datas = Collections.singletonList(null);
             } else {
                 datas = (Iterable<?>) field;
             }
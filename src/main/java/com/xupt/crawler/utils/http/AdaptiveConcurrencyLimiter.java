@@ -0,0 +1,212 @@
+package com.xupt.crawler.utils.http;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * AIMD并发控制
+ * <p>
+ * 请求成功且延迟正常时, 并发上限每轮(约limit个请求)加1;
+ * 遇到418/429/5xx、IO异常或延迟突增时, 并发上限乘以 backoffRatio,
+ * 同一个 decreaseInterval 内只下调一次, 避免一批同时失败的请求把上限直接打到最小值.
+ * 拿不到许可的请求按顺序排队, 有请求结束时把许可交给队头, 排队期间不占用任何线程
+ */
+@Slf4j
+public class AdaptiveConcurrencyLimiter {
+
+    private static final double LATENCY_EWMA_ALPHA = 0.1;
+
+    private final String name;
+
+    private final int minLimit;
+
+    private final int maxLimit;
+
+    private final double backoffRatio;
+
+    private final double latencyTolerance;
+
+    private final long minSpikeMillis;
+
+    private final long decreaseIntervalMillis;
+
+    private final ReentrantLock lock = new ReentrantLock();
+
+    private final Queue<CompletableFuture<Void>> waiters = new ArrayDeque<>();
+
+    private double limit;
+
+    private int inFlight;
+
+    private double latencyEwma = -1;
+
+    private long lastDecreaseAt;
+
+    public AdaptiveConcurrencyLimiter(String name, int initialLimit, int minLimit, int maxLimit, double backoffRatio,
+                                      double latencyTolerance, long minSpikeMillis, long decreaseIntervalMillis) {
+        this.name = name;
+        this.minLimit = Math.max(1, minLimit);
+        this.maxLimit = Math.max(this.minLimit, maxLimit);
+        this.limit = Math.min(this.maxLimit, Math.max(this.minLimit, initialLimit));
+        this.backoffRatio = backoffRatio;
+        this.latencyTolerance = latencyTolerance;
+        this.minSpikeMillis = minSpikeMillis;
+        this.decreaseIntervalMillis = decreaseIntervalMillis;
+    }
+
+    /**
+     * 获取一个并发许可, 超过timeoutMillis仍在排队时以 {@link RateLimitExceededException} 失败.
+     * 返回的future正常完成后调用方必须随后调用 onSuccess/onOverload/onIgnored 之一;
+     * 排队中取消future即放弃排队
+     */
+    public CompletableFuture<Void> acquire(long timeoutMillis, ScheduledExecutorService timer) {
+        CompletableFuture<Void> waiter = new CompletableFuture<>();
+        lock.lock();
+        try {
+            // 队头已经取消的排队者直接丢掉, 不挡住后来的请求
+            while (!waiters.isEmpty() && waiters.peek().isDone()) {
+                waiters.poll();
+            }
+            if (waiters.isEmpty() && inFlight < (int) limit) {
+                inFlight++;
+                waiter.complete(null);
+                return waiter;
+            }
+            waiters.add(waiter);
+        } finally {
+            lock.unlock();
+        }
+        timer.schedule(() -> expire(waiter, timeoutMillis), timeoutMillis, TimeUnit.MILLISECONDS);
+        return waiter;
+    }
+
+    public void onSuccess(long latencyMillis) {
+        lock.lock();
+        try {
+            inFlight--;
+            if (latencyEwma > 0 && latencyMillis > Math.max(minSpikeMillis, latencyEwma * latencyTolerance)) {
+                decrease("latency spike " + latencyMillis + "ms");
+            } else if (inFlight + 1 >= limit / 2) {
+                // 只有上限被真正用到时才增加, 否则上限会在低负载时无意义地涨到最大值
+                limit = Math.min(maxLimit, limit + 1.0 / limit);
+            }
+            latencyEwma = latencyEwma < 0 ? latencyMillis : latencyEwma + LATENCY_EWMA_ALPHA * (latencyMillis - latencyEwma);
+        } finally {
+            lock.unlock();
+        }
+        grant();
+    }
+
+    public void onOverload(String reason) {
+        lock.lock();
+        try {
+            inFlight--;
+            decrease(reason);
+        } finally {
+            lock.unlock();
+        }
+        grant();
+    }
+
+    /**
+     * 请求被取消等与上游无关的结束
+     */
+    public void onIgnored() {
+        lock.lock();
+        try {
+            inFlight--;
+        } finally {
+            lock.unlock();
+        }
+        grant();
+    }
+
+    /**
+     * 没有请求在排队, 并且除去reserved个许可后仍有空闲, 低优先级的请求据此决定是否发起
+     */
+    public boolean hasIdleCapacity(int reserved) {
+        lock.lock();
+        try {
+            return waiters.stream().allMatch(CompletableFuture::isDone) && inFlight + reserved < (int) limit;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int getLimit() {
+        lock.lock();
+        try {
+            return (int) limit;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int getInFlight() {
+        lock.lock();
+        try {
+            return inFlight;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 把空出来的许可交给排队的请求, 回调在锁外执行
+     */
+    private void grant() {
+        List<CompletableFuture<Void>> granted = new ArrayList<>();
+        lock.lock();
+        try {
+            while (inFlight < (int) limit && !waiters.isEmpty()) {
+                CompletableFuture<Void> waiter = waiters.poll();
+                if (!waiter.isDone()) {
+                    inFlight++;
+                    granted.add(waiter);
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+        for (CompletableFuture<Void> waiter : granted) {
+            // 在交出许可后被取消, 许可要还回去
+            if (!waiter.complete(null)) {
+                onIgnored();
+            }
+        }
+    }
+
+    private void expire(CompletableFuture<Void> waiter, long timeoutMillis) {
+        boolean removed;
+        lock.lock();
+        try {
+            removed = waiters.remove(waiter);
+        } finally {
+            lock.unlock();
+        }
+        if (removed) {
+            waiter.completeExceptionally(new RateLimitExceededException(name, timeoutMillis));
+        }
+    }
+
+    private void decrease(String reason) {
+        long now = System.currentTimeMillis();
+        if (now - lastDecreaseAt < decreaseIntervalMillis) {
+            return;
+        }
+        lastDecreaseAt = now;
+        double newLimit = Math.max(minLimit, limit * backoffRatio);
+        if ((int) newLimit != (int) limit) {
+            log.warn("concurrency limit decreased, name: {} limit: {} -> {} reason: {}", name, (int) limit, (int) newLimit, reason);
+        }
+        limit = newLimit;
+    }
+}
@@ -0,0 +1,94 @@
+package com.xupt.crawler.utils.http;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * 单个host的熔断器
+ * <p>
+ * CLOSED: 正常放行, 连续失败达到 failureThreshold 次后进入 OPEN
+ * OPEN: 直接拒绝请求, 经过 openMillis 后进入 HALF_OPEN
+ * HALF_OPEN: 只放行一个探测请求, 成功则 CLOSED, 失败则重新 OPEN
+ */
+@Slf4j
+public class CircuitBreaker {
+
+    public enum State {
+        CLOSED, OPEN, HALF_OPEN
+    }
+
+    private final String name;
+
+    private final int failureThreshold;
+
+    private final long openMillis;
+
+    private State state = State.CLOSED;
+
+    private int consecutiveFailures;
+
+    private long openedAt;
+
+    private boolean probing;
+
+    public CircuitBreaker(String name, int failureThreshold, long openMillis) {
+        this.name = name;
+        this.failureThreshold = failureThreshold;
+        this.openMillis = openMillis;
+    }
+
+    /**
+     * 是否允许发出请求, 返回true时调用方必须随后调用 onSuccess/onFailure/onIgnored 之一
+     */
+    public synchronized boolean tryAcquire() {
+        switch (state) {
+            case CLOSED:
+                return true;
+            case OPEN:
+                if (System.currentTimeMillis() - openedAt < openMillis) {
+                    return false;
+                }
+                state = State.HALF_OPEN;
+                probing = true;
+                log.info("circuit breaker half open, host: {}", name);
+                return true;
+            default:
+                if (probing) {
+                    return false;
+                }
+                probing = true;
+                return true;
+        }
+    }
+
+    public synchronized void onSuccess() {
+        if (state != State.CLOSED) {
+            log.info("circuit breaker closed, host: {}", name);
+        }
+        state = State.CLOSED;
+        consecutiveFailures = 0;
+        probing = false;
+    }
+
+    public synchronized void onFailure() {
+        consecutiveFailures++;
+        if (state == State.HALF_OPEN || consecutiveFailures >= failureThreshold) {
+            if (state != State.OPEN) {
+                log.warn("circuit breaker open, host: {}, consecutiveFailures: {}", name, consecutiveFailures);
+            }
+            state = State.OPEN;
+            openedAt = System.currentTimeMillis();
+        }
+        probing = false;
+    }
+
+    /**
+     * 请求被取消等与上游无关的结束, 只释放探测名额
+     */
+    public synchronized void onIgnored() {
+        probing = false;
+    }
+
+    public synchronized State getState() {
+        return state;
+    }
+}
@@ -0,0 +1,10 @@
+package com.xupt.crawler.utils.http;
+
+import java.io.IOException;
+
+public class CircuitBreakerOpenException extends IOException {
+
+    public CircuitBreakerOpenException(String host) {
+        super(String.format("circuit breaker is open, fail fast. host: %s", host));
+    }
+}
@@ -0,0 +1,63 @@
+package com.xupt.crawler.utils.http;
+
+import okhttp3.HttpUrl;
+
+/**
+ * 按目标host划分的隔离舱, 每个隔离舱拥有独立的连接池和Dispatcher,
+ * 避免某个慢接口(如passport)占满连接和并发数影响其他请求
+ */
+public enum HostBulkhead {
+
+    /**
+     * s.weibo.com 搜索页
+     */
+    SEARCH("search"),
+
+    /**
+     * weibo.com 用户主页
+     */
+    PROFILE("profile"),
+
+    /**
+     * weibo.com 转发列表 /aj/v6/mblog/info/big
+     */
+    RELAY("relay"),
+
+    /**
+     * passport.weibo.com 访客cookie生成
+     */
+    PASSPORT("passport"),
+
+    /**
+     * 其他host
+     */
+    DEFAULT("default");
+
+    private static final String RELAY_PATH = "/aj/v6/mblog/info/big";
+
+    private final String configName;
+
+    HostBulkhead(String configName) {
+        this.configName = configName;
+    }
+
+    public String getConfigName() {
+        return configName;
+    }
+
+    public static HostBulkhead of(HttpUrl url) {
+        if (url == null) {
+            return DEFAULT;
+        }
+        switch (url.host()) {
+            case "s.weibo.com":
+                return SEARCH;
+            case "passport.weibo.com":
+                return PASSPORT;
+            case "weibo.com":
+                return url.encodedPath().startsWith(RELAY_PATH) ? RELAY : PROFILE;
+            default:
+                return DEFAULT;
+        }
+    }
+}
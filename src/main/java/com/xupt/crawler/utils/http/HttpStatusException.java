@@ -0,0 +1,32 @@
+package com.xupt.crawler.utils.http;
+
+import lombok.Getter;
+
+/**
+ * 上游返回了非2xx的响应
+ */
+@Getter
+public class HttpStatusException extends RuntimeException {
+
+    /**
+     * 异常信息中最多保留的响应体长度, 用户主页等响应可能有几百KB
+     */
+    private static final int MAX_BODY_LENGTH = 256;
+
+    private final String url;
+
+    private final int code;
+
+    public HttpStatusException(String url, int code, String body) {
+        super(String.format("http response is not ok, url: %s code: %s response: %s", url, code, abbreviate(body)));
+        this.url = url;
+        this.code = code;
+    }
+
+    private static String abbreviate(String body) {
+        if (body == null || body.length() <= MAX_BODY_LENGTH) {
+            return body;
+        }
+        return body.substring(0, MAX_BODY_LENGTH) + String.format("...(%s chars)", body.length());
+    }
+}
@@ -0,0 +1,10 @@
+package com.xupt.crawler.utils.http;
+
+import java.io.IOException;
+
+public class RateLimitExceededException extends IOException {
+
+    public RateLimitExceededException(String name, long timeoutMillis) {
+        super(String.format("rate limit permit not acquired in %sms. bulkhead: %s", timeoutMillis, name));
+    }
+}
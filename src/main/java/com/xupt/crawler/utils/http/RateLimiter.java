@@ -0,0 +1,99 @@
+package com.xupt.crawler.utils.http;
+
+import okhttp3.Response;
+
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 限流器, 每个隔离舱一个实例
+ * <p>
+ * 请求先从 {@link TokenBucket} 拿令牌限制速率, 再从 {@link AdaptiveConcurrencyLimiter} 拿并发许可,
+ * 请求结果反馈给并发控制器, 让并发数跟随上游的承受能力变化.
+ * 许可在enqueue之前由 {@link RetryingCall} 异步获取, 等待期间不占用Dispatcher的线程和请求数;
+ * 每次重试同样要重新获取
+ */
+public class RateLimiter {
+
+    private final String name;
+
+    private final TokenBucket tokenBucket;
+
+    private final AdaptiveConcurrencyLimiter concurrencyLimiter;
+
+    private final long acquireTimeoutMillis;
+
+    private final ScheduledExecutorService timer;
+
+    public RateLimiter(String name, TokenBucket tokenBucket, AdaptiveConcurrencyLimiter concurrencyLimiter,
+                       long acquireTimeoutMillis, ScheduledExecutorService timer) {
+        this.name = name;
+        this.tokenBucket = tokenBucket;
+        this.concurrencyLimiter = concurrencyLimiter;
+        this.acquireTimeoutMillis = acquireTimeoutMillis;
+        this.timer = timer;
+    }
+
+    /**
+     * 异步获取令牌和并发许可, 超过 acquireTimeout 时以 {@link RateLimitExceededException} 失败.
+     * 正常完成后必须调用 onResponse/onFailure/onIgnored 之一归还许可
+     */
+    public CompletableFuture<Void> acquire() {
+        long tokenWait = tokenBucket.reserve(acquireTimeoutMillis);
+        if (tokenWait < 0) {
+            CompletableFuture<Void> failed = new CompletableFuture<>();
+            failed.completeExceptionally(new RateLimitExceededException(name, acquireTimeoutMillis));
+            return failed;
+        }
+        long remaining = acquireTimeoutMillis - tokenWait;
+        if (tokenWait == 0) {
+            return concurrencyLimiter.acquire(remaining, timer);
+        }
+        CompletableFuture<Void> permit = new CompletableFuture<>();
+        timer.schedule(() -> {
+            if (permit.isDone()) {
+                return;
+            }
+            CompletableFuture<Void> waiter = concurrencyLimiter.acquire(remaining, timer);
+            // 排队期间取消时一并放弃排队
+            permit.whenComplete((v, e) -> waiter.cancel(false));
+            waiter.whenComplete((v, e) -> {
+                if (waiter.isCancelled()) {
+                    return;
+                }
+                if (e != null) {
+                    permit.completeExceptionally(e);
+                } else if (!permit.complete(null)) {
+                    // 等待期间被取消
+                    concurrencyLimiter.onIgnored();
+                }
+            });
+        }, tokenWait, TimeUnit.MILLISECONDS);
+        return permit;
+    }
+
+    public void onResponse(Response response, long startNanos) {
+        if (UpstreamStatus.isOverloaded(response.code())) {
+            concurrencyLimiter.onOverload("http code " + response.code());
+        } else {
+            concurrencyLimiter.onSuccess(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos));
+        }
+    }
+
+    public void onFailure(IOException e) {
+        concurrencyLimiter.onOverload(e.toString());
+    }
+
+    /**
+     * 请求被取消等与上游无关的结束
+     */
+    public void onIgnored() {
+        concurrencyLimiter.onIgnored();
+    }
+
+    public AdaptiveConcurrencyLimiter getConcurrencyLimiter() {
+        return concurrencyLimiter;
+    }
+}
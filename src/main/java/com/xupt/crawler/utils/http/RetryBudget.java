@@ -0,0 +1,72 @@
+package com.xupt.crawler.utils.http;
+
+/**
+ * 全局重试预算
+ * <p>
+ * 在最近 windowSeconds 秒内, 重试次数不能超过 请求数 * ratio + minRetriesPerSecond * windowSeconds,
+ * 上游整体出问题时重试量被限制在总流量的固定比例内, 不会因为重试把流量放大数倍
+ */
+public class RetryBudget {
+
+    private final double ratio;
+
+    private final int minRetriesPerSecond;
+
+    private final int windowSeconds;
+
+    private final long[] requests;
+
+    private final long[] retries;
+
+    private final long[] slotSeconds;
+
+    public RetryBudget(double ratio, int minRetriesPerSecond, int windowSeconds) {
+        this.ratio = ratio;
+        this.minRetriesPerSecond = minRetriesPerSecond;
+        this.windowSeconds = windowSeconds;
+        this.requests = new long[windowSeconds];
+        this.retries = new long[windowSeconds];
+        this.slotSeconds = new long[windowSeconds];
+    }
+
+    /**
+     * 每个原始请求调用一次
+     */
+    public synchronized void onRequest() {
+        int slot = currentSlot();
+        requests[slot]++;
+    }
+
+    /**
+     * 申请一次重试, 预算不足时返回false
+     */
+    public synchronized boolean tryRetry() {
+        int slot = currentSlot();
+        long totalRequests = 0;
+        long totalRetries = 0;
+        long nowSecond = slotSeconds[slot];
+        for (int i = 0; i < windowSeconds; i++) {
+            if (nowSecond - slotSeconds[i] < windowSeconds) {
+                totalRequests += requests[i];
+                totalRetries += retries[i];
+            }
+        }
+        double allowed = totalRequests * ratio + (double) minRetriesPerSecond * windowSeconds;
+        if (totalRetries + 1 > allowed) {
+            return false;
+        }
+        retries[slot]++;
+        return true;
+    }
+
+    private int currentSlot() {
+        long nowSecond = System.currentTimeMillis() / 1000;
+        int slot = (int) (nowSecond % windowSeconds);
+        if (slotSeconds[slot] != nowSecond) {
+            slotSeconds[slot] = nowSecond;
+            requests[slot] = 0;
+            retries[slot] = 0;
+        }
+        return slot;
+    }
+}
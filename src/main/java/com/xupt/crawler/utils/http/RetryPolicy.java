@@ -0,0 +1,63 @@
+package com.xupt.crawler.utils.http;
+
+import lombok.Getter;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * 重试策略: 指数退避 + full jitter
+ * <p>
+ * 第n次重试的等待时间为 [0, min(maxDelay, baseDelay * multiplier^(n-1))] 内的随机值,
+ * 避免大量请求在同一时刻一起重试
+ */
+@Getter
+public class RetryPolicy {
+
+    private final int maxRetries;
+
+    private final long baseDelayMillis;
+
+    private final long maxDelayMillis;
+
+    private final double multiplier;
+
+    public RetryPolicy(int maxRetries, long baseDelayMillis, long maxDelayMillis, double multiplier) {
+        this.maxRetries = maxRetries;
+        this.baseDelayMillis = baseDelayMillis;
+        this.maxDelayMillis = maxDelayMillis;
+        this.multiplier = multiplier;
+    }
+
+    /**
+     * @param retryNum 第几次重试, 从1开始
+     */
+    public long backoffMillis(int retryNum) {
+        double ceiling = baseDelayMillis * Math.pow(multiplier, retryNum - 1);
+        long cap = (long) Math.min(maxDelayMillis, ceiling);
+        if (cap <= 0) {
+            return 0;
+        }
+        return ThreadLocalRandom.current().nextLong(cap + 1);
+    }
+
+    /**
+     * 服务端返回Retry-After时以其为准, 但不超过maxDelay
+     */
+    public long backoffMillis(int retryNum, long retryAfterMillis) {
+        if (retryAfterMillis > 0) {
+            return Math.min(retryAfterMillis, maxDelayMillis);
+        }
+        return backoffMillis(retryNum);
+    }
+
+    public boolean isRetryable(int code) {
+        return UpstreamStatus.isRetryable(code);
+    }
+
+    /**
+     * 计入熔断器失败次数的状态码
+     */
+    public boolean isUpstreamFailure(int code) {
+        return UpstreamStatus.isOverloaded(code);
+    }
+}
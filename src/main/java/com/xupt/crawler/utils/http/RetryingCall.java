@@ -0,0 +1,209 @@
+package com.xupt.crawler.utils.http;
+
+import lombok.extern.slf4j.Slf4j;
+import okhttp3.Call;
+import okhttp3.Callback;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 一次逻辑请求的异步执行, 每次尝试都是一个单独enqueue的Call
+ * <p>
+ * 所有重试统一在这里完成: 退避由 {@link RetryPolicy} 决定, 重试次数受全局 {@link RetryBudget} 限制,
+ * 熔断器打开时直接失败, 业务代码不再自行重试. 每次尝试先异步拿 {@link RateLimiter} 的许可再enqueue,
+ * 退避和限流等待都在定时器上进行, 不占用Dispatcher的线程和请求数
+ */
+@Slf4j
+public class RetryingCall {
+
+    private static final String CANCELED = "Canceled";
+
+    private final OkHttpClient client;
+
+    private final Request request;
+
+    private final RetryPolicy retryPolicy;
+
+    private final RetryBudget retryBudget;
+
+    private final CircuitBreaker circuitBreaker;
+
+    private final RateLimiter rateLimiter;
+
+    private final ScheduledExecutorService timer;
+
+    private Callback callback;
+
+    private int retryNum;
+
+    private volatile Call call;
+
+    private volatile ScheduledFuture<?> pendingRetry;
+
+    private volatile CompletableFuture<Void> pendingPermit;
+
+    private volatile boolean canceled;
+
+    public RetryingCall(OkHttpClient client, Request request, RetryPolicy retryPolicy, RetryBudget retryBudget,
+                        CircuitBreaker circuitBreaker, RateLimiter rateLimiter, ScheduledExecutorService timer) {
+        this.client = client;
+        this.request = request;
+        this.retryPolicy = retryPolicy;
+        this.retryBudget = retryBudget;
+        this.circuitBreaker = circuitBreaker;
+        this.rateLimiter = rateLimiter;
+        this.timer = timer;
+    }
+
+    /**
+     * 最终的响应或异常交给callback, 中间失败的尝试不会回调
+     */
+    public void enqueue(Callback callback) {
+        this.callback = callback;
+        retryBudget.onRequest();
+        attempt();
+    }
+
+    /**
+     * 取消正在进行的尝试、等待中的重试和限流许可
+     */
+    public void cancel() {
+        canceled = true;
+        ScheduledFuture<?> retry = pendingRetry;
+        if (retry != null && retry.cancel(false)) {
+            callback.onFailure(call, new IOException(CANCELED));
+        }
+        CompletableFuture<Void> permit = pendingPermit;
+        if (permit != null && permit.cancel(false)) {
+            callback.onFailure(call, new IOException(CANCELED));
+        }
+        Call current = call;
+        if (current != null) {
+            current.cancel();
+        }
+    }
+
+    private void attempt() {
+        pendingRetry = null;
+        if (canceled) {
+            callback.onFailure(call, new IOException(CANCELED));
+            return;
+        }
+        CompletableFuture<Void> permit = rateLimiter.acquire();
+        pendingPermit = permit;
+        if (canceled && permit.cancel(false)) {
+            callback.onFailure(call, new IOException(CANCELED));
+            return;
+        }
+        permit.whenComplete((v, e) -> {
+            if (permit.isCancelled()) {
+                return;
+            }
+            pendingPermit = null;
+            if (e != null) {
+                // 本地限流等待超时不是上游的问题, 不重试
+                callback.onFailure(call, e instanceof IOException ? (IOException) e : new IOException(e));
+                return;
+            }
+            execute();
+        });
+    }
+
+    private void execute() {
+        if (!circuitBreaker.tryAcquire()) {
+            rateLimiter.onIgnored();
+            callback.onFailure(call, new CircuitBreakerOpenException(request.url().host()));
+            return;
+        }
+        Call current = client.newCall(request);
+        call = current;
+        if (canceled) {
+            current.cancel();
+        }
+        long start = System.nanoTime();
+        current.enqueue(new Callback() {
+            @Override
+            public void onFailure(Call call, IOException e) {
+                onAttemptFailure(call, e);
+            }
+
+            @Override
+            public void onResponse(Call call, Response response) throws IOException {
+                rateLimiter.onResponse(response, start);
+                onAttemptResponse(call, response);
+            }
+        });
+    }
+
+    private void onAttemptFailure(Call call, IOException e) {
+        // 取消不是上游的问题, 既不重试也不计入熔断和限流
+        if (canceled || call.isCanceled() || CANCELED.equals(e.getMessage())) {
+            rateLimiter.onIgnored();
+            circuitBreaker.onIgnored();
+            callback.onFailure(call, e);
+            return;
+        }
+        rateLimiter.onFailure(e);
+        circuitBreaker.onFailure();
+        if (!canRetry()) {
+            callback.onFailure(call, e);
+            return;
+        }
+        retryNum++;
+        log.info("request failed, retrying. url: {} retryNum: {} exception: {}", request.url(), retryNum, e.toString());
+        schedule(retryPolicy.backoffMillis(retryNum));
+    }
+
+    private void onAttemptResponse(Call call, Response response) throws IOException {
+        int code = response.code();
+        if (retryPolicy.isUpstreamFailure(code)) {
+            circuitBreaker.onFailure();
+        } else {
+            circuitBreaker.onSuccess();
+        }
+        if (response.isSuccessful() || !retryPolicy.isRetryable(code) || canceled || !canRetry()) {
+            callback.onResponse(call, response);
+            return;
+        }
+        long retryAfterMillis = parseRetryAfter(response.header("Retry-After"));
+        // 重试前必须关闭失败的响应, 否则连接无法归还连接池
+        response.close();
+        retryNum++;
+        log.info("request failed, retrying. url: {} retryNum: {} code: {}", request.url(), retryNum, code);
+        schedule(retryPolicy.backoffMillis(retryNum, retryAfterMillis));
+    }
+
+    private void schedule(long delayMillis) {
+        if (delayMillis <= 0) {
+            attempt();
+            return;
+        }
+        pendingRetry = timer.schedule(this::attempt, delayMillis, TimeUnit.MILLISECONDS);
+        // 安排重试的同时被取消
+        if (canceled && pendingRetry.cancel(false)) {
+            callback.onFailure(call, new IOException(CANCELED));
+        }
+    }
+
+    private boolean canRetry() {
+        return retryNum < retryPolicy.getMaxRetries() && retryBudget.tryRetry();
+    }
+
+    private long parseRetryAfter(String retryAfter) {
+        if (retryAfter == null) {
+            return 0;
+        }
+        try {
+            return Long.parseLong(retryAfter.trim()) * 1000;
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+}
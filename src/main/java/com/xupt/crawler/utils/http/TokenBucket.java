@@ -0,0 +1,50 @@
+package com.xupt.crawler.utils.http;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 令牌桶, 以 permitsPerSecond 的速率生成令牌, 最多积攒 burst 个
+ * permitsPerSecond <= 0 表示不限速
+ */
+public class TokenBucket {
+
+    private final double permitsPerSecond;
+
+    private final double burst;
+
+    private double tokens;
+
+    private long lastRefillNanos;
+
+    public TokenBucket(double permitsPerSecond, double burst) {
+        this.permitsPerSecond = permitsPerSecond;
+        this.burst = Math.max(1, burst);
+        this.tokens = this.burst;
+        this.lastRefillNanos = System.nanoTime();
+    }
+
+    /**
+     * 预订一个令牌, 返回令牌可用前需要等待的毫秒数, 等待超过timeoutMillis时不预订并返回-1
+     * <p>
+     * 不在调用线程上等待, 由调用方安排延迟后再继续
+     */
+    public synchronized long reserve(long timeoutMillis) {
+        if (permitsPerSecond <= 0) {
+            return 0;
+        }
+        refill();
+        long waitMillis = tokens >= 1 ? 0 : (long) Math.ceil((1 - tokens) / permitsPerSecond * 1000);
+        if (waitMillis > timeoutMillis) {
+            return -1;
+        }
+        // 令牌可以预支成负数, 后来的请求依次排在后面
+        tokens -= 1;
+        return waitMillis;
+    }
+
+    private void refill() {
+        long now = System.nanoTime();
+        tokens = Math.min(burst, tokens + (now - lastRefillNanos) * permitsPerSecond / TimeUnit.SECONDS.toNanos(1));
+        lastRefillNanos = now;
+    }
+}
@@ -0,0 +1,24 @@
+package com.xupt.crawler.utils.http;
+
+/**
+ * 上游响应状态码的分类
+ */
+public final class UpstreamStatus {
+
+    private UpstreamStatus() {
+    }
+
+    /**
+     * 表示上游在拒绝或无法处理请求: 418是微博封禁的信号, 429限流, 5xx服务端过载或故障
+     */
+    public static boolean isOverloaded(int code) {
+        return code == 418 || code == 429 || code >= 500;
+    }
+
+    /**
+     * 可以重试的状态码: 超时、限流和网关类错误, 418重试只会加重封禁, 不重试
+     */
+    public static boolean isRetryable(int code) {
+        return code == 408 || code == 429 || code == 500 || code == 502 || code == 503 || code == 504;
+    }
+}
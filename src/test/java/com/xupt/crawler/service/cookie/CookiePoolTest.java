@@ -0,0 +1,96 @@
+package com.xupt.crawler.service.cookie;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * cookie的过期时间以passport给出的为准, maxAge只作为上限; 同时淘汰的cookie只触发一次补充
+ */
+class CookiePoolTest {
+
+    private static final long MAX_AGE = TimeUnit.MINUTES.toMillis(120);
+
+    private final ScheduledThreadPoolExecutor scheduler = new ScheduledThreadPoolExecutor(1);
+
+    @AfterEach
+    void shutdown() {
+        scheduler.shutdownNow();
+    }
+
+    @Test
+    void usesPassportExpiry() {
+        long expiresAt = System.currentTimeMillis() + TimeUnit.MINUTES.toMillis(30);
+        VisitorCookie cookie = mintOne(() -> new VisitorCookie("SUB=a; SUBP=b", System.currentTimeMillis(), expiresAt));
+        assertEquals(expiresAt, cookie.getExpiresAt());
+    }
+
+    @Test
+    void capsExpiryAtMaxAge() {
+        long before = System.currentTimeMillis();
+        VisitorCookie cookie = mintOne(() -> new VisitorCookie("SUB=a; SUBP=b", System.currentTimeMillis(), Long.MAX_VALUE));
+        assertTrue(cookie.getExpiresAt() >= before + MAX_AGE);
+        assertTrue(cookie.getExpiresAt() <= System.currentTimeMillis() + MAX_AGE);
+    }
+
+    @Test
+    void coalescesRefillAfterEvictions() throws Exception {
+        AtomicInteger minted = new AtomicInteger();
+        CookiePool pool = new CookiePool(3, MAX_AGE, TimeUnit.MINUTES.toMillis(10), 1, 0,
+                () -> new VisitorCookie("SUB=new" + minted.incrementAndGet() + "; SUBP=b", System.currentTimeMillis(), Long.MAX_VALUE),
+                scheduler, Runnable::run);
+        long now = System.currentTimeMillis();
+        List<VisitorCookie> restored = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            restored.add(new VisitorCookie("SUB=old" + i + "; SUBP=b", now, now + MAX_AGE));
+        }
+        pool.restore(restored);
+
+        // 淘汰期间调度线程被占用, 补充任务只能排队
+        CountDownLatch blocked = new CountDownLatch(1);
+        scheduler.execute(() -> {
+            try {
+                blocked.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        for (VisitorCookie cookie : restored) {
+            pool.reportFailure(cookie.getValue(), 1);
+        }
+        assertEquals(0, pool.getCookies().size());
+        blocked.countDown();
+        scheduler.shutdown();
+        assertTrue(scheduler.awaitTermination(5, TimeUnit.SECONDS));
+
+        assertEquals(2, scheduler.getCompletedTaskCount());
+        assertEquals(3, minted.get());
+        assertEquals(3, pool.getCookies().size());
+    }
+
+    @Test
+    void equalityIgnoresCounters() {
+        VisitorCookie a = new VisitorCookie("SUB=a; SUBP=b", 1, 2);
+        VisitorCookie b = new VisitorCookie("SUB=a; SUBP=b", 1, 2);
+        a.recordFailure(1);
+        assertEquals(a, b);
+        assertEquals(a.hashCode(), b.hashCode());
+    }
+
+    private VisitorCookie mintOne(Supplier<VisitorCookie> minter) {
+        CookiePool pool = new CookiePool(1, MAX_AGE, TimeUnit.MINUTES.toMillis(10), 3, 0, minter, scheduler, Runnable::run);
+        assertEquals("SUB=a; SUBP=b", pool.borrow());
+        assertEquals(1, pool.getCookies().size());
+        return pool.getCookies().get(0);
+    }
+}
@@ -0,0 +1,59 @@
+package com.xupt.crawler.service.crawl;
+
+import com.xupt.crawler.service.model.RelayPage;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Collections;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+/**
+ * 转发页只在relay.log中保存内容, 重新打开时按位置读取, 中断时没写完的最后一行被跳过
+ */
+class CrawlCheckpointTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void relayPagesSurviveReopen() throws IOException {
+        CrawlCheckpoint checkpoint = new CrawlCheckpoint(dir, new CheckpointStore());
+        checkpoint.put("m1", 1, new RelayPage(3, Collections.emptyList()));
+        checkpoint.put("m1", 2, new RelayPage(3, Collections.emptyList()));
+        checkpoint.put("m1", 2, new RelayPage(9, Collections.emptyList()));
+        assertEquals(3, checkpoint.get("m1", 2).getTotalPage());
+        checkpoint.close();
+
+        CrawlCheckpoint reopened = new CrawlCheckpoint(dir, new CheckpointStore());
+        assertEquals(3, reopened.get("m1", 1).getTotalPage());
+        assertEquals(3, reopened.get("m1", 2).getTotalPage());
+        assertNull(reopened.get("m1", 3));
+        reopened.close();
+    }
+
+    @Test
+    void brokenTailIsSkipped() throws IOException {
+        CrawlCheckpoint checkpoint = new CrawlCheckpoint(dir, new CheckpointStore());
+        checkpoint.put("m1", 1, new RelayPage(2, Collections.emptyList()));
+        checkpoint.close();
+        Files.write(dir.resolve("relay.log"), "{\"mid\":\"m1\",\"page\":2,\"relay".getBytes(StandardCharsets.UTF_8),
+                StandardOpenOption.APPEND);
+
+        CrawlCheckpoint reopened = new CrawlCheckpoint(dir, new CheckpointStore());
+        assertNull(reopened.get("m1", 2));
+        reopened.put("m2", 1, new RelayPage(5, Collections.emptyList()));
+        reopened.close();
+
+        CrawlCheckpoint again = new CrawlCheckpoint(dir, new CheckpointStore());
+        assertEquals(2, again.get("m1", 1).getTotalPage());
+        assertEquals(5, again.get("m2", 1).getTotalPage());
+        again.close();
+    }
+}
@@ -0,0 +1,86 @@
+package com.xupt.crawler.service.crawl;
+
+import com.xupt.crawler.controller.resp.WeiboDomain;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 前面的页被读取后才启动后面的页, 同时启动的页数不超过窗口
+ */
+class PageCursorTest {
+
+    @Test
+    void startsNextPageOnlyAfterConsumed() {
+        AtomicInteger started = new AtomicInteger();
+        List<Supplier<CompletableFuture<List<WeiboDomain>>>> pages = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            CompletableFuture<List<WeiboDomain>> future = CompletableFuture.completedFuture(Collections.emptyList());
+            pages.add(() -> {
+                started.incrementAndGet();
+                return future;
+            });
+        }
+        AtomicInteger closed = new AtomicInteger();
+        PageCursor cursor = new PageCursor(5, pages, 2, completed -> closed.incrementAndGet());
+        assertEquals(2, started.get());
+        cursor.next();
+        assertEquals(3, started.get());
+        while (cursor.hasNext()) {
+            cursor.next();
+        }
+        assertEquals(5, started.get());
+        cursor.close();
+        cursor.close();
+        assertEquals(1, closed.get());
+    }
+
+    @Test
+    void closeCancelsStartedPages() {
+        CompletableFuture<List<WeiboDomain>> pending = new CompletableFuture<>();
+        List<Supplier<CompletableFuture<List<WeiboDomain>>>> pages = new ArrayList<>();
+        pages.add(() -> pending);
+        AtomicInteger started = new AtomicInteger();
+        pages.add(() -> {
+            started.incrementAndGet();
+            return new CompletableFuture<>();
+        });
+        PageCursor cursor = new PageCursor(2, pages, 1, completed -> {
+        });
+        assertTrue(cursor.hasNext());
+        cursor.close();
+        assertTrue(pending.isCancelled());
+        assertFalse(cursor.hasNext());
+        assertEquals(0, started.get());
+    }
+
+    @Test
+    void completeOnlyAfterAllPagesRead() {
+        List<Supplier<CompletableFuture<List<WeiboDomain>>>> pages = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            pages.add(() -> CompletableFuture.completedFuture(Collections.emptyList()));
+        }
+        List<Boolean> results = new ArrayList<>();
+        PageCursor partial = new PageCursor(3, pages, 2, results::add);
+        partial.next();
+        partial.complete();
+        partial.close();
+        PageCursor full = new PageCursor(3, pages, 2, results::add);
+        while (full.hasNext()) {
+            full.next();
+        }
+        full.complete();
+        full.close();
+        assertEquals(Arrays.asList(false, true), results);
+    }
+}
@@ -0,0 +1,77 @@
+package com.xupt.crawler.service.impl;
+
+import com.xupt.crawler.service.CrawlerService;
+import com.xupt.crawler.utils.OkHttpClients;
+import com.xupt.crawler.utils.concurrent.FanOutScope;
+import com.xupt.crawler.utils.concurrent.Futures;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.env.YamlPropertySourceLoader;
+import org.springframework.core.env.PropertySource;
+import org.springframework.core.env.StandardEnvironment;
+import org.springframework.core.io.ClassPathResource;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 取消scope时底层的http请求也要被取消, 不能等到响应返回或超时
+ */
+class CrawlerServiceImplTest {
+
+    @BeforeAll
+    static void init() throws IOException {
+        StandardEnvironment environment = new StandardEnvironment();
+        for (PropertySource<?> source : new YamlPropertySourceLoader().load("application", new ClassPathResource("application.yml"))) {
+            environment.getPropertySources().addLast(source);
+        }
+        OkHttpClients.init(environment);
+    }
+
+    @Test
+    void cancelledScopeCancelsRequest() throws Exception {
+        try (ServerSocket server = new ServerSocket(0, 50, InetAddress.getLoopbackAddress())) {
+            CountDownLatch accepted = new CountDownLatch(1);
+            CountDownLatch disconnected = new CountDownLatch(1);
+            // 收到请求后一直不响应, 直到客户端关闭连接
+            Thread hangingServer = new Thread(() -> {
+                try (Socket socket = server.accept()) {
+                    accepted.countDown();
+                    InputStream in = socket.getInputStream();
+                    byte[] buffer = new byte[1024];
+                    while (in.read(buffer) != -1) {
+                        continue;
+                    }
+                } catch (IOException ignored) {
+                }
+                disconnected.countDown();
+            });
+            hangingServer.setDaemon(true);
+            hangingServer.start();
+
+            CrawlerService crawlerService = new CrawlerServiceImpl();
+            String url = "http://127.0.0.1:" + server.getLocalPort() + "/weibo?q=test";
+            FanOutScope<Integer> scope = new FanOutScope<>(Runnable::run, 1);
+            scope.fork(() -> {
+                CompletableFuture<String> html = crawlerService.getHtmlAsync(url, null, true);
+                return Futures.cancelling(html.thenApply(String::length), html);
+            });
+            CompletableFuture<List<Integer>> joined = scope.join();
+            assertTrue(accepted.await(5, TimeUnit.SECONDS));
+
+            scope.cancel();
+            // 读超时是10秒, 5秒内断开说明请求是被取消的
+            assertTrue(disconnected.await(5, TimeUnit.SECONDS));
+            assertTrue(joined.isCompletedExceptionally());
+        }
+    }
+}
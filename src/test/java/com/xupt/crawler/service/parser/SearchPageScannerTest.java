@@ -0,0 +1,65 @@
+package com.xupt.crawler.service.parser;
+
+import com.xupt.crawler.service.impl.WeiBoJsonpHtmlServiceImpl;
+import com.xupt.crawler.service.model.SearchCard;
+import com.xupt.crawler.service.model.SearchPage;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.util.StreamUtils;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * 不构建DOM的扫描解析要与jsoup解析得到相同的结果
+ */
+class SearchPageScannerTest {
+
+    private WeiBoJsonpHtmlServiceImpl jsoupParser;
+
+    @BeforeEach
+    void setUp() {
+        jsoupParser = new WeiBoJsonpHtmlServiceImpl();
+        ReflectionTestUtils.setField(jsoupParser, "searchPageParser", "jsoup");
+    }
+
+    @Test
+    void scanMatchesJsoup() throws IOException {
+        String html = fixture("fixtures/search-page.html");
+        SearchPage expected = jsoupParser.parsePage(html);
+        SearchPage scanned = SearchPageScanner.scan(html);
+
+        assertEquals(expected, scanned);
+        assertEquals(12, scanned.getPageCount());
+        // 没有nick-name的卡片计入条数但不返回, 推荐卡片不计入
+        assertEquals(4, scanned.getCardCount());
+        assertEquals(3, scanned.getCards().size());
+
+        SearchCard first = scanned.getCards().get(0);
+        assertEquals("4668551123456789", first.getMid());
+        assertEquals("1234567890", first.getUid());
+        assertEquals("新闻&资讯", first.getName());
+        assertEquals("wx1.sinaimg.cn/thumb150/0001.jpg", first.getImg());
+        assertEquals("转发 25", first.getRelayNum());
+        assertEquals("评论 8", first.getComment());
+        assertEquals("132", first.getLikes());
+    }
+
+    @Test
+    void scanMatchesJsoupWithoutPager() throws IOException {
+        String html = fixture("fixtures/search-page.html");
+        String singlePage = html.substring(0, html.indexOf("<div class=\"m-page\">")) + "</div></div></body></html>";
+        SearchPage scanned = SearchPageScanner.scan(singlePage);
+
+        assertEquals(jsoupParser.parsePage(singlePage), scanned);
+        assertEquals(1, scanned.getPageCount());
+    }
+
+    private static String fixture(String path) throws IOException {
+        return StreamUtils.copyToString(new ClassPathResource(path).getInputStream(), StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,51 @@
+package com.xupt.crawler.utils.CSV;
+
+import org.apache.commons.csv.CSVFormat;
+import org.apache.commons.csv.CSVRecord;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * 微博正文中的逗号、双引号和换行不能打乱导出的行和列
+ */
+class CSVUtilsTest {
+
+    @Test
+    void escapePlainValue() {
+        assertEquals("", CSVUtils.escape(null));
+        assertEquals("", CSVUtils.escape(""));
+        assertEquals("转发微博", CSVUtils.escape("转发微博"));
+    }
+
+    @Test
+    void escapeSpecialCharacters() {
+        assertEquals("\"a,b\"", CSVUtils.escape("a,b"));
+        assertEquals("\"say \"\"hi\"\"\"", CSVUtils.escape("say \"hi\""));
+        assertEquals("\"line1\nline2\"", CSVUtils.escape("line1\nline2"));
+        assertEquals("\"line1\r\nline2\"", CSVUtils.escape("line1\r\nline2"));
+        assertEquals("\"a\rb\"", CSVUtils.escape("a\rb"));
+    }
+
+    @Test
+    void escapedRowParsesBack() throws IOException {
+        String[] values = {"a,b", "say \"hi\"", "line1\r\nline2", "plain"};
+        StringBuilder line = new StringBuilder();
+        for (int i = 0; i < values.length; i++) {
+            if (i > 0) {
+                line.append(',');
+            }
+            line.append(CSVUtils.escape(values[i]));
+        }
+        List<CSVRecord> records = CSVFormat.RFC4180.parse(new StringReader(line.append("\r\n").toString())).getRecords();
+        assertEquals(1, records.size());
+        assertEquals(values.length, records.get(0).size());
+        for (int i = 0; i < values.length; i++) {
+            assertEquals(values[i], records.get(0).get(i));
+        }
+    }
+}
@@ -0,0 +1,58 @@
+package com.xupt.crawler.utils;
+
+import com.xupt.crawler.utils.http.HostBulkhead;
+import okhttp3.OkHttpClient;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.env.YamlPropertySourceLoader;
+import org.springframework.core.env.PropertySource;
+import org.springframework.core.env.StandardEnvironment;
+import org.springframework.core.io.ClassPathResource;
+
+import java.io.IOException;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * application.yml中按host配置的连接池、超时和并发上限要真正用到client上
+ */
+class OkHttpClientsTest {
+
+    @BeforeAll
+    static void init() throws IOException {
+        StandardEnvironment environment = new StandardEnvironment();
+        for (PropertySource<?> source : new YamlPropertySourceLoader().load("application", new ClassPathResource("application.yml"))) {
+            environment.getPropertySources().addLast(source);
+        }
+        OkHttpClients.init(environment);
+    }
+
+    @Test
+    void hostSettingsReachClients() {
+        OkHttpClient search = OkHttpClients.getInstance(HostBulkhead.SEARCH);
+        assertEquals(16, search.dispatcher().getMaxRequests());
+        assertEquals(4, search.dispatcher().getMaxRequestsPerHost());
+        assertEquals(10000, search.readTimeoutMillis());
+
+        OkHttpClient passport = OkHttpClients.getInstance(HostBulkhead.PASSPORT);
+        assertEquals(2, passport.dispatcher().getMaxRequestsPerHost());
+        assertEquals(5000, passport.connectTimeoutMillis());
+        assertEquals(5000, passport.readTimeoutMillis());
+
+        assertEquals(8000, OkHttpClients.getInstance(HostBulkhead.PROFILE).readTimeoutMillis());
+    }
+
+    @Test
+    void concurrencySettingsReachLimiters() {
+        assertEquals(2, OkHttpClients.getConcurrencyLimiter(HostBulkhead.SEARCH).getLimit());
+        assertEquals(1, OkHttpClients.getConcurrencyLimiter(HostBulkhead.PASSPORT).getLimit());
+        assertEquals(4, OkHttpClients.getConcurrencyLimiter(HostBulkhead.PROFILE).getLimit());
+    }
+
+    @Test
+    void defaultsUsedWhenNotConfigured() {
+        OkHttpClient client = OkHttpClients.getInstance(HostBulkhead.DEFAULT);
+        assertEquals(64, client.dispatcher().getMaxRequests());
+        assertEquals(5, client.dispatcher().getMaxRequestsPerHost());
+    }
+}
@@ -0,0 +1,55 @@
+package com.xupt.crawler.utils.concurrent;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 合并的请求只有在所有调用方都取消后才取消, 取消后的新调用重新执行
+ */
+class SingleFlightTest {
+
+    @Test
+    void cancelsExecutionAfterAllCallersCancel() {
+        SingleFlight<String, String> singleFlight = new SingleFlight<>();
+        AtomicInteger executed = new AtomicInteger();
+        CompletableFuture<String> execution = new CompletableFuture<>();
+        CompletableFuture<String> first = singleFlight.execute("k", () -> {
+            executed.incrementAndGet();
+            return execution;
+        });
+        CompletableFuture<String> second = singleFlight.execute("k", CompletableFuture::new);
+        assertEquals(1, executed.get());
+
+        first.cancel(false);
+        assertFalse(execution.isCancelled());
+        second.cancel(false);
+        assertTrue(execution.isCancelled());
+
+        CompletableFuture<String> third = singleFlight.execute("k", () -> {
+            executed.incrementAndGet();
+            return CompletableFuture.completedFuture("v");
+        });
+        assertEquals("v", third.join());
+        assertEquals(2, executed.get());
+    }
+
+    @Test
+    void thenComposeCancelsCurrentStage() {
+        CompletableFuture<String> source = new CompletableFuture<>();
+        CompletableFuture<String> next = new CompletableFuture<>();
+        CompletableFuture<String> composed = Futures.thenCompose(source, value -> next);
+        source.complete("v");
+        composed.cancel(false);
+        assertTrue(next.isCancelled());
+
+        CompletableFuture<String> pending = new CompletableFuture<>();
+        Futures.thenCompose(pending, value -> next).cancel(false);
+        assertTrue(pending.isCancelled());
+    }
+}
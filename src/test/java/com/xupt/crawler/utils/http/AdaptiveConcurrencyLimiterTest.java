@@ -0,0 +1,73 @@
+package com.xupt.crawler.utils.http;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 拿不到许可的请求排队等待, 不阻塞调用线程
+ */
+class AdaptiveConcurrencyLimiterTest {
+
+    private final ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor();
+
+    private final AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter("test", 1, 1, 1, 0.5, 2.5, 1000, 1000);
+
+    @AfterEach
+    void shutdown() {
+        timer.shutdownNow();
+    }
+
+    @Test
+    void releaseGrantsQueuedWaiter() {
+        assertTrue(limiter.acquire(1000, timer).isDone());
+        CompletableFuture<Void> cancelled = limiter.acquire(1000, timer);
+        CompletableFuture<Void> waiter = limiter.acquire(1000, timer);
+        assertFalse(waiter.isDone());
+
+        cancelled.cancel(false);
+        limiter.onSuccess(10);
+        assertTrue(waiter.isDone());
+        assertEquals(1, limiter.getInFlight());
+        limiter.onIgnored();
+        assertEquals(0, limiter.getInFlight());
+    }
+
+    @Test
+    void queuedWaiterTimesOut() {
+        assertTrue(limiter.acquire(1000, timer).isDone());
+        CompletableFuture<Void> waiter = limiter.acquire(50, timer);
+        ExecutionException e = assertThrows(ExecutionException.class, () -> waiter.get(5, TimeUnit.SECONDS));
+        assertTrue(e.getCause() instanceof RateLimitExceededException);
+
+        // 超时的排队者不会再拿到许可
+        limiter.onIgnored();
+        assertEquals(0, limiter.getInFlight());
+    }
+
+    @Test
+    void idleCapacityKeepsReservedPermits() {
+        AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter("test", 2, 1, 2, 0.5, 2.5, 1000, 1000);
+        assertTrue(limiter.hasIdleCapacity(1));
+        assertTrue(limiter.acquire(1000, timer).isDone());
+        assertFalse(limiter.hasIdleCapacity(1));
+        assertTrue(limiter.hasIdleCapacity(0));
+
+        assertTrue(limiter.acquire(1000, timer).isDone());
+        CompletableFuture<Void> waiter = limiter.acquire(1000, timer);
+        limiter.onIgnored();
+        assertTrue(waiter.isDone());
+        // 排队的请求拿到了空出来的许可
+        assertFalse(limiter.hasIdleCapacity(0));
+    }
+}
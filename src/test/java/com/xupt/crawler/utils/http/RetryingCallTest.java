@@ -0,0 +1,97 @@
+package com.xupt.crawler.utils.http;
+
+import okhttp3.Call;
+import okhttp3.Callback;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+import org.junit.jupiter.api.Test;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * 503后按Retry-After退避重试, 退避期间不占用Dispatcher
+ */
+class RetryingCallTest {
+
+    @Test
+    void retriesOnTimerWithoutHoldingDispatcher() throws Exception {
+        AtomicInteger requests = new AtomicInteger();
+        ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor();
+        try (ServerSocket server = new ServerSocket(0, 50, InetAddress.getLoopbackAddress())) {
+            Thread serverThread = new Thread(() -> {
+                try {
+                    respond(server, "HTTP/1.1 503 Service Unavailable\r\nRetry-After: 1\r\nContent-Length: 0\r\nConnection: close\r\n\r\n");
+                    requests.incrementAndGet();
+                    respond(server, "HTTP/1.1 200 OK\r\nContent-Length: 2\r\nConnection: close\r\n\r\nok");
+                    requests.incrementAndGet();
+                } catch (IOException ignored) {
+                }
+            });
+            serverThread.setDaemon(true);
+            serverThread.start();
+
+            OkHttpClient client = new OkHttpClient();
+            AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter("test", 1, 1, 1, 0.5, 2.5, 1000, 1000);
+            Request request = new Request.Builder().url("http://127.0.0.1:" + server.getLocalPort() + "/").build();
+            RetryingCall call = new RetryingCall(client, request, new RetryPolicy(2, 10, 5000, 2.0),
+                    new RetryBudget(0.1, 10, 10), new CircuitBreaker("127.0.0.1", 10, 30000),
+                    new RateLimiter("test", new TokenBucket(0, 1), limiter, 5000, timer), timer);
+            CompletableFuture<String> body = new CompletableFuture<>();
+            call.enqueue(new Callback() {
+                @Override
+                public void onFailure(Call call, IOException e) {
+                    body.completeExceptionally(e);
+                }
+
+                @Override
+                public void onResponse(Call call, Response response) throws IOException {
+                    try (Response r = response) {
+                        body.complete(r.code() + ":" + r.body().string());
+                    }
+                }
+            });
+
+            while (requests.get() == 0) {
+                Thread.sleep(10);
+            }
+            Thread.sleep(300);
+            // 第一次尝试已经结束, 重试还在定时器上等待
+            assertEquals(0, client.dispatcher().runningCallsCount());
+            assertEquals(1, requests.get());
+            // 退避期间并发许可已经归还
+            assertEquals(0, limiter.getInFlight());
+            assertEquals("200:ok", body.get(5, TimeUnit.SECONDS));
+            assertEquals(0, limiter.getInFlight());
+        } finally {
+            timer.shutdownNow();
+        }
+    }
+
+    private static void respond(ServerSocket server, String response) throws IOException {
+        try (Socket socket = server.accept()) {
+            BufferedReader reader = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.US_ASCII));
+            String line;
+            while ((line = reader.readLine()) != null && !line.isEmpty()) {
+                continue;
+            }
+            OutputStream out = socket.getOutputStream();
+            out.write(response.getBytes(StandardCharsets.US_ASCII));
+            out.flush();
+        }
+    }
+}